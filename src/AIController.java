@@ -0,0 +1,61 @@
+// File: src/AIController.java
+
+// Plays a SimulationLoop game with TetrisAI. When a new piece appears the AI picks its
+// column and rotation and MoveGenerator finds the shortest input path there, which is
+// then sent either all on that tick or one input per tick like the Swing executor.
+//
+// The moves only repeat between runs if the AI's search does too, so use a search
+// config without a time budget (such as SearchConfig.greedy()) when the same seed must
+// always give the same game. The loop's InputLog replays a game exactly either way.
+public class AIController implements SimulationLoop.Controller {
+    private final TetrisAI ai;
+    private final MoveGenerator moveGenerator = new MoveGenerator();
+    private final Move move = new Move(0, 0);
+    private final boolean wholePathPerTick;
+    private long plannedPiece = -1; // piece number the current target belongs to
+    private boolean hasTarget;
+    private Shape.Orientation target; // orientation the current target ends in
+
+    // controller that sends a piece's whole input path on the tick the piece spawns
+    public AIController(TetrisAI ai) {
+        this(ai, true);
+    }
+
+    // with wholePathPerTick false only the first input is sent each tick, and the path is
+    // found again from wherever gravity has moved the piece to on the next tick
+    public AIController(TetrisAI ai, boolean wholePathPerTick) {
+        this.ai = ai;
+        this.wholePathPerTick = wholePathPerTick;
+    }
+
+    @Override
+    public void inputs(GameEngine engine, long tick, SimulationLoop.InputQueue out) {
+        Shape piece = engine.getCurrentPiece();
+        if (engine.isFallingFinished() || piece.getShape() == Shape.Tetrominoes.NoShape) {
+            return; // waiting for the next piece to spawn
+        }
+        // search once per piece, the target stays the same while the piece falls
+        if (plannedPiece != engine.getPiecesSpawned()) {
+            plannedPiece = engine.getPiecesSpawned();
+            hasTarget = ai.findBestMove(engine.getBoard(), piece, engine.getNextPiece(), move);
+            // the move's rotation is relative to the piece as searched, fix the target orientation now
+            target = piece.getOrientation().rotate(move.getRotation());
+        }
+        MoveGenerator.Placement path = null;
+        if (hasTarget) {
+            path = moveGenerator.pathToDrop(engine.getBoard(), piece.getOrientation(), engine.getCurX(),
+                    engine.getCurY(), target, move.getColumn());
+        }
+        if (path == null) {
+            out.add(MoveGenerator.Input.DROP); // the target cannot be reached, lock the piece where it is
+            return;
+        }
+        if (wholePathPerTick) {
+            for (MoveGenerator.Input input : path.getInputs()) {
+                out.add(input);
+            }
+        } else {
+            out.add(path.getInputs().get(0));
+        }
+    }
+}
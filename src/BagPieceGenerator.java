@@ -0,0 +1,41 @@
+// File: src/BagPieceGenerator.java
+
+import java.util.SplittableRandom;
+
+// Deals the 7 shapes in random order, then shuffles them again for the next 7
+class BagPieceGenerator implements PieceGenerator {
+    private static final Shape.Tetrominoes[] SHAPES = Shape.Tetrominoes.values();
+
+    private final SplittableRandom random;
+    private final int[] bag = { 1, 2, 3, 4, 5, 6, 7 }; // shape ordinals
+    private int dealt = bag.length; // shuffle before the first draw
+
+    BagPieceGenerator(SplittableRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public Shape.Tetrominoes next() {
+        if (dealt == bag.length) {
+            // Fisher-Yates shuffle in place
+            for (int i = bag.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = bag[i];
+                bag[i] = bag[j];
+                bag[j] = swap;
+            }
+            dealt = 0;
+        }
+        return SHAPES[bag[dealt++]];
+    }
+
+    @Override
+    public PieceGenerator split() {
+        return new BagPieceGenerator(random.split());
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.BAG;
+    }
+}
@@ -0,0 +1,341 @@
+// File: src/BitBoard.java
+
+// Occupancy board used by the AI search. Each row is stored as an int mask where
+// bit x is set when column x is filled, so collision, placement and line checks are
+// whole-row AND/OR operations instead of walking Shape.Tetrominoes references.
+// Row 0 is the top of the board and pieces fall towards higher rows. Shape grids and
+// GameState snapshots number their rows from the bottom like GameEngine, so load()
+// turns them upside down.
+public class BitBoard {
+    // widest board a row mask can hold
+    public static final int MAX_WIDTH = 32;
+
+    private final int width;
+    private final int height;
+    private final int fullRow; // mask with every column set
+    private final int[] rows;
+
+    // colour plane (shape ordinal per cell), only allocated for boards that get rendered
+    private final byte[] colors;
+
+    // per-column scratch for feature extraction so evaluating a board never allocates
+    private final int[] heightBuffer;
+
+    // Zobrist hash of the filled cells, kept up to date by every change to the rows
+    private long hash;
+
+    // creates an empty occupancy-only board
+    public BitBoard(int width, int height) {
+        this(width, height, false);
+    }
+
+    // creates an empty board, optionally keeping the colour of every cell
+    public BitBoard(int width, int height, boolean withColors) {
+        if (width < 1 || width > MAX_WIDTH) {
+            throw new IllegalArgumentException("Board width must be between 1 and " + MAX_WIDTH + ": " + width);
+        }
+        this.width = width;
+        this.height = height;
+        this.fullRow = width == MAX_WIDTH ? -1 : (1 << width) - 1;
+        this.rows = new int[height];
+        this.colors = withColors ? new byte[width * height] : null;
+        this.heightBuffer = new int[width];
+    }
+
+    // builds an occupancy board from a shape grid
+    public static BitBoard fromCells(Shape.Tetrominoes[][] cells) {
+        BitBoard bitBoard = new BitBoard(cells[0].length, cells.length);
+        bitBoard.load(cells);
+        return bitBoard;
+    }
+
+    // overwrites this board with the contents of a shape grid of the same size, row 0 of the grid is the bottom
+    public void load(Shape.Tetrominoes[][] cells) {
+        hash = 0;
+        for (int y = 0; y < height; y++) {
+            Shape.Tetrominoes[] cellRow = cells[height - 1 - y];
+            int mask = 0;
+            for (int x = 0; x < width; x++) {
+                if (cellRow[x] != Shape.Tetrominoes.NoShape) {
+                    mask |= 1 << x;
+                    if (colors != null) {
+                        colors[y * width + x] = (byte) cellRow[x].ordinal();
+                    }
+                } else if (colors != null) {
+                    colors[y * width + x] = 0;
+                }
+            }
+            rows[y] = mask;
+            hash ^= ZobristHash.rowKey(y, mask);
+        }
+    }
+
+    // overwrites this board with the occupancy of a snapshot of the same size
+    public void load(GameState state) {
+        hash = 0;
+        for (int y = 0; y < height; y++) {
+            int mask = state.occupancy(height - 1 - y);
+            if (colors != null) {
+                for (int x = 0; x < width; x++) {
+                    colors[y * width + x] = (byte) state.shapeAt(x, height - 1 - y).ordinal();
+                }
+            }
+            rows[y] = mask;
+            hash ^= ZobristHash.rowKey(y, mask);
+        }
+    }
+
+    // returns a copy of this board
+    public BitBoard copy() {
+        BitBoard copy = new BitBoard(width, height, colors != null);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    // overwrites this board with another board of the same size
+    public void copyFrom(BitBoard other) {
+        System.arraycopy(other.rows, 0, rows, 0, height);
+        hash = other.hash;
+        if (colors != null && other.colors != null) {
+            System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Zobrist hash of the filled cells
+    public long getHash() {
+        return hash;
+    }
+
+    // mask with every column of a row set
+    public int getFullRow() {
+        return fullRow;
+    }
+
+    // occupancy mask of a row
+    public int getRow(int y) {
+        return rows[y];
+    }
+
+    // scratch array with one slot per column, owned by whoever is evaluating this board
+    public int[] heightBuffer() {
+        return heightBuffer;
+    }
+
+    // check if a cell is filled
+    public boolean isOccupied(int x, int y) {
+        return (rows[y] & (1 << x)) != 0;
+    }
+
+    // returns the shape at a cell, only available on boards with a colour plane
+    public Shape.Tetrominoes shapeAt(int x, int y) {
+        if (colors == null) {
+            throw new IllegalStateException("Board was created without a colour plane");
+        }
+        return Shape.Tetrominoes.values()[colors[y * width + x]];
+    }
+
+    // check if piece fits with its origin at col/row
+    public boolean fits(Piece piece, int col, int row) {
+        int shift = col + piece.minX;
+        int top = row + piece.minY;
+        if (shift < 0 || shift + piece.width > width || top < 0 || top + piece.height > height) {
+            return false;
+        }
+        for (int i = 0; i < piece.height; i++) {
+            if ((rows[top + i] & (piece.rowMasks[i] << shift)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // lowest row the piece reaches when dropped from the top of the board at col, -1 if it does
+    // not fit at the top. The drop starts with the piece's highest cell in row 0.
+    public int dropRow(Piece piece, int col) {
+        int start = -piece.minY;
+        int row = start;
+        while (fits(piece, col, row)) {
+            row++;
+        }
+        return row == start ? -1 : row - 1;
+    }
+
+    // place piece with its origin at col/row, caller must check fits first
+    public void place(Piece piece, int col, int row) {
+        int shift = col + piece.minX;
+        int top = row + piece.minY;
+        for (int i = 0; i < piece.height; i++) {
+            int mask = piece.rowMasks[i] << shift;
+            rows[top + i] |= mask;
+            hash ^= ZobristHash.rowKey(top + i, mask);
+            if (colors != null) {
+                paintRow(top + i, mask, (byte) piece.shape.ordinal());
+            }
+        }
+    }
+
+    // takes a placed piece back off the board, undoing place
+    public void remove(Piece piece, int col, int row) {
+        int shift = col + piece.minX;
+        int top = row + piece.minY;
+        for (int i = 0; i < piece.height; i++) {
+            int mask = piece.rowMasks[i] << shift;
+            rows[top + i] &= ~mask;
+            hash ^= ZobristHash.rowKey(top + i, mask);
+            if (colors != null) {
+                paintRow(top + i, mask, (byte) 0);
+            }
+        }
+    }
+
+    // removes every full row and compacts the rows above it down in one pass, returns lines cleared
+    public int clearFullLines() {
+        // rows below the lowest full row never move
+        int lowest = height - 1;
+        while (lowest >= 0 && rows[lowest] != fullRow) {
+            lowest--;
+        }
+        if (lowest < 0) {
+            return 0;
+        }
+        // take the rows that move out of the hash, and add them back once they have moved
+        for (int y = 0; y <= lowest; y++) {
+            hash ^= ZobristHash.rowKey(y, rows[y]);
+        }
+
+        int write = lowest;
+        for (int read = lowest; read >= 0; read--) {
+            if (rows[read] == fullRow) {
+                continue;
+            }
+            if (write != read) {
+                rows[write] = rows[read];
+                if (colors != null) {
+                    System.arraycopy(colors, read * width, colors, write * width, width);
+                }
+            }
+            write--;
+        }
+        int cleared = write + 1;
+        for (int y = 0; y < cleared; y++) {
+            rows[y] = 0;
+            if (colors != null) {
+                paintRow(y, fullRow, (byte) 0);
+            }
+        }
+
+        for (int y = cleared; y <= lowest; y++) {
+            hash ^= ZobristHash.rowKey(y, rows[y]);
+        }
+        return cleared;
+    }
+
+    // counts rows that are completely filled
+    public int countFullLines() {
+        int lines = 0;
+        for (int y = 0; y < height; y++) {
+            if (rows[y] == fullRow) {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    // writes a colour into every cell of a row covered by mask
+    private void paintRow(int y, int mask, byte color) {
+        while (mask != 0) {
+            int x = Integer.numberOfTrailingZeros(mask);
+            colors[y * width + x] = color;
+            mask &= mask - 1;
+        }
+    }
+
+    // immutable row-mask form of a rotated piece, bits are relative to the piece's minX
+    public static class Piece {
+        private final Shape.Tetrominoes shape;
+        private final int minX;
+        private final int minY;
+        private final int width;
+        private final int height;
+        private final int[] rowMasks;
+
+        private Piece(Shape.Tetrominoes shape, int minX, int minY, int width, int height, int[] rowMasks) {
+            this.shape = shape;
+            this.minX = minX;
+            this.minY = minY;
+            this.width = width;
+            this.height = height;
+            this.rowMasks = rowMasks;
+        }
+
+        // row masks for the current orientation of a shape, shared from the orientation table
+        public static Piece of(Shape shape) {
+            return shape.getOrientation().getPiece();
+        }
+
+        // builds the row masks for a set of cell offsets
+        static Piece of(Shape.Tetrominoes shape, int[] xs, int[] ys) {
+            int minX = xs[0], maxX = xs[0], minY = ys[0], maxY = ys[0];
+            for (int i = 1; i < xs.length; i++) {
+                minX = Math.min(minX, xs[i]);
+                maxX = Math.max(maxX, xs[i]);
+                minY = Math.min(minY, ys[i]);
+                maxY = Math.max(maxY, ys[i]);
+            }
+            int[] rowMasks = new int[maxY - minY + 1];
+            for (int i = 0; i < xs.length; i++) {
+                rowMasks[ys[i] - minY] |= 1 << (xs[i] - minX);
+            }
+            return new Piece(shape, minX, minY, maxX - minX + 1, maxY - minY + 1, rowMasks);
+        }
+
+        public Shape.Tetrominoes getShape() {
+            return shape;
+        }
+
+        public int getMinX() {
+            return minX;
+        }
+
+        public int getMinY() {
+            return minY;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        // check if another piece covers the same cells relative to its bounding box
+        public boolean sameCells(Piece other) {
+            if (other == this) {
+                return true;
+            }
+            if (other == null || other.width != width || other.height != height) {
+                return false;
+            }
+            for (int i = 0; i < height; i++) {
+                if (other.rowMasks[i] != rowMasks[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // mask of the cells in piece row i (0 is the piece's top row)
+        public int rowMask(int i) {
+            return rowMasks[i];
+        }
+    }
+}
@@ -1,80 +1,206 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+
 public class BoardEvaluator {
+    // positions of each feature in the feature vector
+    public static final int HEIGHT = 0;
+    public static final int LINES = 1;
+    public static final int HOLES = 2;
+    public static final int BUMPINESS = 3;
+    public static final int FEATURE_COUNT = 4;
 
-    // evaluates board based on various factors
-    public int evaluateBoard(Shape.Tetrominoes[][] board) {
-        int heightScore = getHeight(board);
-        int holesScore = getHoles(board);
-        int linesCleared = getClearedLines(board);
-        int bumpinessScore = getBumpiness(board);
-        return (-4 * heightScore) + (3 * linesCleared) - (5 * holesScore) - (2 * bumpinessScore);
+    // weights the game has always played with
+    private static final int[] DEFAULT_WEIGHTS = { -4, 3, -5, -2 };
+
+    // weight file the game and the server load at startup, written by WeightTuner
+    public static final String WEIGHTS_FILE = "ai_weights.json";
+
+    // weight of each feature, in feature vector order
+    private final int[] weights;
+
+    // scratch feature vector and column heights so evaluation does not allocate
+    private final int[] features = new int[FEATURE_COUNT];
+    private int[] heights = new int[0];
+
+    // evaluator with the default weights
+    public BoardEvaluator() {
+        this(DEFAULT_WEIGHTS);
     }
 
-    // calc max height of blocks
-    private int getHeight(Shape.Tetrominoes[][] board) {
-        int height = 0;
-        for (int x = 0; x < board[0].length; x++) {
-            for (int y = 0; y < board.length; y++) {
-                if (board[y][x] != Shape.Tetrominoes.NoShape) {
-                    height = Math.max(height, board.length - y);
-                    break;
-                }
-            }
+    // evaluator with one weight per feature, in feature vector order
+    public BoardEvaluator(int[] weights) {
+        if (weights.length != FEATURE_COUNT) {
+            throw new IllegalArgumentException(
+                    "Expected " + FEATURE_COUNT + " feature weights, got " + weights.length);
         }
-        return height;
+        this.weights = weights.clone();
     }
 
-    // calculate num of holes in board
-    private int getHoles(Shape.Tetrominoes[][] board) {
-        int holes = 0;
-        for (int x = 0; x < board[0].length; x++) {
-            boolean foundBlock = false;
-            for (int y = 0; y < board.length; y++) {
-                if (board[y][x] != Shape.Tetrominoes.NoShape) {
-                    foundBlock = true;
-                } else if (foundBlock && board[y][x] == Shape.Tetrominoes.NoShape) {
-                    holes++;
-                }
+    // copy of the default weights
+    public static int[] getDefaultWeights() {
+        return DEFAULT_WEIGHTS.clone();
+    }
+
+    // contents of a weight file
+    private static final class WeightFile {
+        private int[] weights;
+    }
+
+    // reads an evaluator from a weight file, {"weights": [height, lines, holes, bumpiness]}
+    public static BoardEvaluator load(String fileName) throws IOException {
+        try (FileReader reader = new FileReader(fileName)) {
+            WeightFile file = new Gson().fromJson(reader, WeightFile.class);
+            if (file == null || file.weights == null) {
+                throw new IOException("No weights in " + fileName);
             }
+            return new BoardEvaluator(file.weights);
+        } catch (JsonParseException | IllegalArgumentException e) {
+            throw new IOException("Bad weight file " + fileName + ": " + e.getMessage(), e);
+        }
+    }
+
+    // reads a weight file if there is one, otherwise returns the default weights
+    public static BoardEvaluator loadOrDefault(String fileName) {
+        if (!new File(fileName).isFile()) {
+            return new BoardEvaluator();
+        }
+        try {
+            BoardEvaluator evaluator = load(fileName);
+            System.out.println("AI weights loaded from " + fileName + ".");
+            return evaluator;
+        } catch (IOException e) {
+            System.out.println("Using default AI weights. " + e.getMessage());
+            return new BoardEvaluator();
+        }
+    }
+
+    // writes the weights in the format load reads
+    public void save(String fileName) throws IOException {
+        WeightFile file = new WeightFile();
+        file.weights = weights.clone();
+        try (FileWriter writer = new FileWriter(fileName)) {
+            new Gson().toJson(file, writer);
         }
-        return holes;
     }
 
-    // counts num of cleared lines on board
-    private int getClearedLines(Shape.Tetrominoes[][] board) {
-        int clearedLines = 0;
-        for (int y = 0; y < board.length; y++) {
+    // evaluates board based on various factors
+    public int evaluateBoard(Shape.Tetrominoes[][] board) {
+        extractFeatures(board, features);
+        return score(features);
+    }
+
+    // evaluates a bitboard with the same weights
+    public int evaluateBoard(BitBoard board) {
+        extractFeatures(board, features);
+        return score(features);
+    }
+
+    // weighted sum of a feature vector
+    public int score(int[] features) {
+        int score = 0;
+        for (int i = 0; i < FEATURE_COUNT; i++) {
+            score += weights[i] * features[i];
+        }
+        return score;
+    }
+
+    // weight of a single feature
+    public int getWeight(int feature) {
+        return weights[feature];
+    }
+
+    // returns a copy of the feature weights
+    public int[] getWeights() {
+        return weights.clone();
+    }
+
+    // fills out with max height, full lines, holes and bumpiness in one top-down sweep of a
+    // grid whose row 0 is the bottom, like GameEngine's
+    public void extractFeatures(Shape.Tetrominoes[][] board, int[] out) {
+        int height = board.length;
+        int width = board[0].length;
+        if (heights.length < width) {
+            heights = new int[width];
+        }
+        for (int x = 0; x < width; x++) {
+            heights[x] = 0; // 0 until a block is seen in the column
+        }
+
+        int holes = 0;
+        int lines = 0;
+        for (int y = 0; y < height; y++) {
+            Shape.Tetrominoes[] row = board[height - 1 - y];
             boolean isLineFull = true;
-            for (int x = 0; x < board[0].length; x++) {
-                if (board[y][x] == Shape.Tetrominoes.NoShape) {
+            for (int x = 0; x < width; x++) {
+                if (row[x] != Shape.Tetrominoes.NoShape) {
+                    // first block in a column sets its height
+                    if (heights[x] == 0) {
+                        heights[x] = height - y;
+                    }
+                } else {
                     isLineFull = false;
-                    break;
+                    // empty cells under a block are holes
+                    if (heights[x] != 0) {
+                        holes++;
+                    }
                 }
             }
             if (isLineFull) {
-                clearedLines++;
+                lines++;
             }
         }
-        return clearedLines;
+        finishFeatures(heights, width, lines, holes, out);
     }
 
-    // calc bumpiness
-    private int getBumpiness(Shape.Tetrominoes[][] board) {
-        int bumpiness = 0;
-        for (int x = 0; x < board[0].length - 1; x++) {
-            int colHeight1 = getColumnHeight(board, x);
-            int colHeight2 = getColumnHeight(board, x + 1);
-            bumpiness += Math.abs(colHeight1 - colHeight2);
+    // fills out with the same features from the row masks of a bitboard
+    public void extractFeatures(BitBoard board, int[] out) {
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int fullRow = board.getFullRow();
+        int[] heights = board.heightBuffer();
+        for (int x = 0; x < width; x++) {
+            heights[x] = 0;
         }
-        return bumpiness;
+
+        int seen = 0; // columns that already have a block above the current row
+        int holes = 0;
+        int lines = 0;
+        for (int y = 0; y < height; y++) {
+            int row = board.getRow(y);
+            // first block in a column sets its height
+            int fresh = row & ~seen;
+            while (fresh != 0) {
+                heights[Integer.numberOfTrailingZeros(fresh)] = height - y;
+                fresh &= fresh - 1;
+            }
+            // empty cells under a block are holes
+            holes += Integer.bitCount(~row & seen & fullRow);
+            seen |= row;
+            if (row == fullRow) {
+                lines++;
+            }
+        }
+        finishFeatures(heights, width, lines, holes, out);
     }
 
-    // method to get height of specific col
-    private int getColumnHeight(Shape.Tetrominoes[][] board, int col) {
-        for (int y = 0; y < board.length; y++) {
-            if (board[y][col] != Shape.Tetrominoes.NoShape) {
-                return board.length - y;
+    // derives max height and bumpiness from the column heights and writes the feature vector
+    private static void finishFeatures(int[] heights, int width, int lines, int holes, int[] out) {
+        int maxHeight = 0;
+        int bumpiness = 0;
+        for (int x = 0; x < width; x++) {
+            maxHeight = Math.max(maxHeight, heights[x]);
+            if (x < width - 1) {
+                bumpiness += Math.abs(heights[x] - heights[x + 1]);
             }
         }
-        return 0;
+        out[HEIGHT] = maxHeight;
+        out[LINES] = lines;
+        out[HOLES] = holes;
+        out[BUMPINESS] = bumpiness;
     }
 }
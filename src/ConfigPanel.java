@@ -195,6 +195,15 @@ public class ConfigPanel extends JPanel {
             external2Button.setEnabled(isEnabled);
         });
 
+        // AI search checkbox
+        JCheckBox expectimaxCheckBox = new JCheckBox("Expectimax AI (On|Off)", parentFrame.isExpectimaxAI());
+        expectimaxCheckBox.setFont(new Font("Arial", Font.PLAIN, 16));
+        gbc.gridx = 0;
+        gbc.gridy = 9;
+        gbc.gridwidth = 2;
+        add(expectimaxCheckBox, gbc);
+        gbc.gridwidth = 1;
+
         // Save button
         JButton saveButton = new JButton("Save");
         saveButton.setFont(new Font("Arial", Font.PLAIN, 16));
@@ -217,13 +226,14 @@ public class ConfigPanel extends JPanel {
             // Update settings in the parent frame
             parentFrame.updateSettings(width, height, level, music, soundEffect, extendMode);
             parentFrame.updatePlayerTypes(selectedPlayerOneType, selectedPlayerTwoType);
+            parentFrame.updateAISearch(expectimaxCheckBox.isSelected());
 
             // Return to the main menu after saving settings
             parentFrame.showMainMenu();
         });
 
         gbc.gridx = 0;
-        gbc.gridy = 9;
+        gbc.gridy = 10;
         add(saveButton, gbc);
 
         // Cancel button
@@ -232,7 +242,7 @@ public class ConfigPanel extends JPanel {
         cancelButton.setPreferredSize(new Dimension(120, 40));
         cancelButton.addActionListener(e -> parentFrame.showMainMenu());
         gbc.gridx = 1;
-        gbc.gridy = 9;
+        gbc.gridy = 10;
         add(cancelButton, gbc);
     }
 }
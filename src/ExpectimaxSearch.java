@@ -0,0 +1,248 @@
+// File: src/ExpectimaxSearch.java
+
+// Expectimax search for TetrisAI. Placement plies take the best child and piece plies
+// average over the 7 shapes (or use the known next piece), since Shape.setRandomShape
+// draws each shape with equal chance. Iterative deepening runs depth 1, 2, ... up to the
+// configured depth, and the move from the deepest finished iteration is returned when
+// the deadline passes. Depth 1 always finishes.
+//
+// Below the root only the beamWidth best placements by static score are searched deeper,
+// which keeps each extra ply affordable within a gravity tick.
+class ExpectimaxSearch {
+    // salt that keeps expectimax values apart from other entries in the transposition table
+    private static final long EXPECTIMAX_KEY = ZobristHash.mix(0xE7A1L);
+
+    // score of a board where the piece cannot be placed at all
+    private static final int TOPPED_OUT = -1_000_000;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final BoardEvaluator evaluator;
+
+    ExpectimaxSearch(BoardEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    // writes the best move into result, returns false if the piece does not fit anywhere.
+    // complete[0] is set to false when the deadline stopped the search before maxDepth.
+    boolean search(BitBoard root, Shape.Orientation piece, Shape.Orientation nextPiece, SearchConfig config,
+            TranspositionTable table, long searchKey, Move result, boolean[] complete) {
+        Scratch scratch = SCRATCH.get();
+        long budget = config.getTimeBudgetMillis();
+        scratch.deadline = budget > 0 ? System.nanoTime() + budget * 1_000_000L : Long.MAX_VALUE;
+        scratch.table = table;
+        scratch.searchKey = searchKey;
+        scratch.lineWeight = evaluator.getWeight(BoardEvaluator.LINES);
+        scratch.ensure(root.getWidth(), root.getHeight(), config.getDepth() + 1);
+        complete[0] = true;
+
+        // all root placements, best static score first
+        Level level = scratch.levels[0];
+        level.board.copyFrom(root);
+        level.linesCleared = 0;
+        generate(level, piece, Integer.MAX_VALUE, scratch);
+        if (level.size == 0) {
+            return false;
+        }
+        result.setColumn(level.columns[level.order[0]]);
+        result.setRotation(level.rotations[level.order[0]]);
+
+        int beamWidth = config.getBeamWidth();
+        for (int depth = 2; depth <= config.getDepth(); depth++) {
+            int bestIndex = -1;
+            long bestValue = Long.MIN_VALUE;
+            int children = Math.min(level.size, beamWidth);
+            for (int i = 0; i < children; i++) {
+                int c = level.order[i];
+                long value = chanceValue(level, c, depth - 1, nextPiece, beamWidth, scratch);
+                if (scratch.timedOut) {
+                    break;
+                }
+                if (value > bestValue) {
+                    bestValue = value;
+                    bestIndex = c;
+                }
+            }
+            if (scratch.timedOut) {
+                complete[0] = false; // keep the move from the last finished depth
+                break;
+            }
+            result.setColumn(level.columns[bestIndex]);
+            result.setRotation(level.rotations[bestIndex]);
+        }
+        return true;
+    }
+
+    // value of placing candidate c of level and then drawing the next piece with depth plies left.
+    // known is the next piece if it is known, otherwise all 7 shapes are averaged.
+    private long chanceValue(Level level, int c, int depth, Shape.Orientation known, int beamWidth,
+            Scratch scratch) {
+        if (System.nanoTime() > scratch.deadline) {
+            scratch.timedOut = true;
+            return 0;
+        }
+        Level child = scratch.levels[level.index + 1];
+        child.board.copyFrom(level.board);
+        child.board.place(level.masks[c], level.columns[c], level.rows[c]);
+        child.linesCleared = level.linesCleared + child.board.clearFullLines();
+        long bonus = (long) scratch.lineWeight * child.linesCleared;
+
+        // the value of a board after its clears does not depend on how it was reached
+        long key = 0;
+        if (scratch.table != null) {
+            key = child.board.getHash() ^ EXPECTIMAX_KEY ^ scratch.searchKey ^ ZobristHash.mix(depth)
+                    ^ (known == null ? 0 : ZobristHash.pieceKey(known, 1));
+            long entry = scratch.table.probe(key);
+            if (entry != TranspositionTable.MISS) {
+                return TranspositionTable.score(entry) + bonus;
+            }
+        }
+
+        long total = 0;
+        int outcomes = 0;
+        Shape.Tetrominoes[] shapes = Shape.Tetrominoes.values();
+        for (int s = 1; s < shapes.length; s++) {
+            if (known != null && shapes[s] != known.getShape()) {
+                continue;
+            }
+            Shape.Orientation piece = known != null ? known : Shape.orientation(shapes[s], 0);
+            total += maxValue(child, piece, depth, beamWidth, scratch) - bonus;
+            outcomes++;
+            if (scratch.timedOut) {
+                return 0;
+            }
+        }
+        int average = (int) Math.floorDiv(total, outcomes);
+        if (scratch.table != null) {
+            scratch.table.store(key, average, 0, 0, depth);
+        }
+        return average + bonus;
+    }
+
+    // value of the best placement of piece on level's board with depth plies left
+    private long maxValue(Level level, Shape.Orientation piece, int depth, int beamWidth, Scratch scratch) {
+        if (depth <= 1) {
+            // leaf: best static score, no need to keep the candidates
+            scratch.delta.reset(level.board);
+            int best = TOPPED_OUT;
+            for (int rotation = 0; rotation < 4; rotation++) {
+                BitBoard.Piece mask = piece.rotate(rotation).getPiece();
+                for (int col = 0; col < level.board.getWidth(); col++) {
+                    int dropRow = level.board.dropRow(mask, col);
+                    if (dropRow < 0) {
+                        continue;
+                    }
+                    scratch.delta.extractFeatures(mask, col, dropRow, scratch.features);
+                    best = Math.max(best, evaluator.score(scratch.features));
+                }
+            }
+            return best + (long) scratch.lineWeight * level.linesCleared;
+        }
+
+        generate(level, piece, beamWidth, scratch);
+        if (level.size == 0) {
+            return TOPPED_OUT + (long) scratch.lineWeight * level.linesCleared;
+        }
+        long best = Long.MIN_VALUE;
+        int children = Math.min(level.size, beamWidth);
+        for (int i = 0; i < children; i++) {
+            long value = chanceValue(level, level.order[i], depth - 1, null, beamWidth, scratch);
+            if (scratch.timedOut) {
+                return 0;
+            }
+            best = Math.max(best, value);
+        }
+        return best;
+    }
+
+    // fills level with every placement of piece, ordered by static score, best first.
+    // Only the first keep entries of the order are guaranteed to be sorted.
+    private void generate(Level level, Shape.Orientation piece, int keep, Scratch scratch) {
+        scratch.delta.reset(level.board);
+        level.size = 0;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            BitBoard.Piece mask = piece.rotate(rotation).getPiece();
+            for (int col = 0; col < level.board.getWidth(); col++) {
+                int dropRow = level.board.dropRow(mask, col);
+                if (dropRow < 0) {
+                    continue;
+                }
+                scratch.delta.extractFeatures(mask, col, dropRow, scratch.features);
+                int n = level.size++;
+                level.scores[n] = evaluator.score(scratch.features);
+                level.masks[n] = mask;
+                level.columns[n] = col;
+                level.rows[n] = dropRow;
+                level.rotations[n] = rotation;
+                level.order[n] = n;
+            }
+        }
+        // partial selection sort, stable so earlier placements win ties
+        int sorted = Math.min(keep, level.size);
+        for (int i = 0; i < sorted; i++) {
+            int best = i;
+            for (int j = i + 1; j < level.size; j++) {
+                if (level.scores[level.order[j]] > level.scores[level.order[best]]) {
+                    best = j;
+                }
+            }
+            int moved = level.order[best];
+            for (int j = best; j > i; j--) {
+                level.order[j] = level.order[j - 1];
+            }
+            level.order[i] = moved;
+        }
+    }
+
+    // board and candidate placements for one ply of the recursion
+    private static final class Level {
+        private final int index;
+        private final BitBoard board;
+        private int linesCleared;
+        private int size;
+        private final int[] scores;
+        private final BitBoard.Piece[] masks;
+        private final int[] columns;
+        private final int[] rows;
+        private final int[] rotations;
+        private final int[] order;
+
+        private Level(int index, int width, int height) {
+            this.index = index;
+            this.board = new BitBoard(width, height);
+            int capacity = 4 * width;
+            scores = new int[capacity];
+            masks = new BitBoard.Piece[capacity];
+            columns = new int[capacity];
+            rows = new int[capacity];
+            rotations = new int[capacity];
+            order = new int[capacity];
+        }
+    }
+
+    // per-thread recursion buffers
+    private static final class Scratch {
+        private Level[] levels = new Level[0];
+        private final IncrementalEvaluator delta = new IncrementalEvaluator();
+        private final int[] features = new int[BoardEvaluator.FEATURE_COUNT];
+        private long deadline;
+        private boolean timedOut;
+        private TranspositionTable table;
+        private long searchKey;
+        private int lineWeight;
+
+        // makes sure there is one level per ply for a board of this size
+        private void ensure(int width, int height, int depth) {
+            timedOut = false;
+            boolean sameSize = levels.length > 0 && levels[0].board.getWidth() == width
+                    && levels[0].board.getHeight() == height;
+            if (sameSize && levels.length >= depth) {
+                return;
+            }
+            levels = new Level[Math.max(depth, 2)];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Level(i, width, height);
+            }
+        }
+    }
+}
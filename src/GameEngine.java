@@ -0,0 +1,541 @@
+// File: src/GameEngine.java
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Rules of a single Tetris game with no Swing or AWT dependency: movement, gravity,
+// locking, line clears, scoring and levels. Nothing happens on its own, the owner drives
+// the game by calling tick() once per gravity step and the move methods for player
+// input, so a game can run at any speed, without a display, and on any thread.
+//
+// Row 0 of the board is the bottom row and a piece's cells are at
+// (curX + piece.x(i), curY - piece.y(i)). Side effects such as sounds, dialogs and
+// repaints are left to a Listener.
+//
+// An engine is not thread safe, each game should be driven from one thread at a time.
+// Other threads, such as a renderer, read the game through published snapshots: with
+// setPublishing(true) every move, tick or other change ends by storing an immutable
+// GameState in a volatile field, and getPublished() always returns a whole frame
+// without locking the game thread.
+public class GameEngine {
+    // callbacks for things a view or controller reacts to, all optional
+    public interface Listener {
+        // the falling piece moved, turned or spawned, or the board changed
+        default void boardChanged() {
+        }
+
+        // a left, right or rotate input succeeded
+        default void pieceMoved() {
+        }
+
+        // a single full line was removed, called once per line
+        default void lineRemoved() {
+        }
+
+        // one or more lines were removed by the last piece and the score changed
+        default void linesCleared(int lines) {
+        }
+
+        // the rows removed by the last piece, as they were numbered before the rows above
+        // moved down, lowest first. The array is reused, read it during the call only.
+        default void rowsCleared(int[] rows, int count) {
+        }
+
+        // the level went up
+        default void levelUp(int level) {
+        }
+
+        // a new piece has spawned and fits: at the start of a game, after a piece locks, or on
+        // the tick after a line clear
+        default void pieceSpawned() {
+        }
+
+        // the new piece did not fit, the game is over
+        default void gameOver() {
+        }
+    }
+
+    // listener that ignores every event
+    private static final Listener NO_LISTENER = new Listener() {
+    };
+
+    private int width;
+    private int height;
+    private Shape.Tetrominoes[][] board;
+    private int[] rowFill; // filled cells in each row, a row is full when it reaches width
+    private int[] skyline; // rows up to and including the highest filled cell of each column
+    private int[] clearedRows = new int[4];
+    private Shape.Tetrominoes[][] removedRows = new Shape.Tetrominoes[4][];
+    private final Shape curPiece = new Shape();
+    private final Shape nextPiece = new Shape(); // preview of the piece that spawns after curPiece
+    private int curX = 0;
+    private int curY = 0;
+    private boolean isFallingFinished = false;
+    private boolean isStarted = false;
+    private boolean isGameOver = false;
+    private int numLinesRemoved = 0;
+    private int score = 0;
+    private int gameLevel;
+    private long piecesSpawned = 0;
+    private final PieceQueue pieces; // pieces after nextPiece
+    private Listener listener = NO_LISTENER;
+    private boolean publishing = false;
+    private volatile GameState published; // latest frame for other threads, null until publishing starts
+
+    // creates an engine for a board of width x height cells starting at level, with its own unseeded pieces
+    public GameEngine(int width, int height, int level) {
+        this(width, height, level, PieceGenerator.uniform(ThreadLocalRandom.current().nextLong()));
+    }
+
+    // creates an engine that deals its pieces from generator, so a seeded generator replays the same pieces
+    public GameEngine(int width, int height, int level, PieceGenerator generator) {
+        this(width, height, level, new PieceQueue(generator, 1));
+    }
+
+    // creates an engine that deals its pieces from a preview queue
+    public GameEngine(int width, int height, int level, PieceQueue pieces) {
+        this.pieces = pieces;
+        this.width = width;
+        this.height = height;
+        this.gameLevel = level;
+        board = new Shape.Tetrominoes[height][width];
+        rowFill = new int[height];
+        skyline = new int[width];
+        clearBoard();
+    }
+
+    // sets the listener, null for none
+    public void setListener(Listener listener) {
+        this.listener = listener == null ? NO_LISTENER : listener;
+    }
+
+    // changes the board size and starting level and empties the board
+    public void updateSettings(int width, int height, int level) {
+        if (width != this.width || height != this.height) {
+            board = new Shape.Tetrominoes[height][width];
+            rowFill = new int[height];
+            skyline = new int[width];
+        }
+        this.width = width;
+        this.height = height;
+        this.gameLevel = level;
+        clearBoard();
+        publish();
+    }
+
+    // publishes a snapshot after every change when on, for a renderer or other reader thread
+    public void setPublishing(boolean publishing) {
+        this.publishing = publishing;
+        published = null;
+        publish();
+    }
+
+    public boolean isPublishing() {
+        return publishing;
+    }
+
+    // latest published snapshot, safe to call from any thread. Null when publishing is off.
+    public GameState getPublished() {
+        return published;
+    }
+
+    // initialise new game
+    public void startGame() {
+        isStarted = true;
+        isGameOver = false;
+        isFallingFinished = false;
+        numLinesRemoved = 0;
+        score = 0;
+        piecesSpawned = 0;
+        clearBoard();
+        nextPiece.setShape(pieces.next());
+        newPiece();
+        publish();
+    }
+
+    // snapshot of the game as it is now
+    public GameState snapshot() {
+        return GameState.of(this);
+    }
+
+    // continues a game from a snapshot of the same board size. Pieces after the snapshot's
+    // next piece come from this engine's own generator.
+    public void restore(GameState state) {
+        if (state.getWidth() != width || state.getHeight() != height) {
+            throw new IllegalArgumentException("Snapshot is " + state.getWidth() + " x " + state.getHeight()
+                    + ", board is " + width + " x " + height);
+        }
+        for (int y = 0; y < height; y++) {
+            rowFill[y] = 0;
+            for (int x = 0; x < width; x++) {
+                board[y][x] = state.shapeAt(x, y);
+                if (board[y][x] != Shape.Tetrominoes.NoShape) {
+                    rowFill[y]++;
+                }
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            skyline[x] = height;
+            lowerSkyline(x);
+        }
+        curPiece.setOrientation(state.getOrientation());
+        nextPiece.setShape(state.getNextPiece());
+        curX = state.getX();
+        curY = state.getY();
+        score = state.getScore();
+        numLinesRemoved = state.getLines();
+        gameLevel = state.getLevel();
+        isFallingFinished = curPiece.getShape() == Shape.Tetrominoes.NoShape;
+        isStarted = true;
+        isGameOver = false;
+        publish();
+        listener.boardChanged();
+    }
+
+    // one gravity step: spawns a new piece after a line clear, otherwise moves the piece down
+    public void tick() {
+        if (isFallingFinished) {
+            isFallingFinished = false;
+            newPiece();
+        } else {
+            oneLineDown();
+        }
+        publish();
+    }
+
+    // move piece left, returns false if it is blocked
+    public boolean moveLeft() {
+        return playerMove(curPiece.getOrientation(), curX - 1, curY);
+    }
+
+    // move piece right, returns false if it is blocked
+    public boolean moveRight() {
+        return playerMove(curPiece.getOrientation(), curX + 1, curY);
+    }
+
+    // rotate piece right, returns false if it is blocked
+    public boolean rotate() {
+        return playerMove(curPiece.getOrientation().rotateRight(), curX, curY);
+    }
+
+    // moves the current piece down one line, locking it if it cannot move
+    public void moveDown() {
+        if (!hasFallingPiece()) {
+            return;
+        }
+        oneLineDown();
+        publish();
+    }
+
+    // drops current piece to bottom of board in a single move
+    public void drop() {
+        if (!hasFallingPiece()) {
+            return; // nothing falls between a line clear and the next tick, or after game over
+        }
+        int landingY = getGhostY();
+        if (landingY != curY) {
+            tryMove(curPiece.getOrientation(), curX, landingY);
+        }
+        pieceDropped(); // handles the peice when reaches bottom
+        publish();
+    }
+
+    // row the current piece would land on if dropped, which is where the ghost piece is drawn.
+    // When every cell of the piece is above its column's skyline the landing row comes
+    // straight from the skyline, otherwise the piece is under an overhang and the rows
+    // below it are checked one by one.
+    public int getGhostY() {
+        Shape.Orientation orientation = curPiece.getOrientation();
+        int landingY = 0;
+        boolean aboveSkyline = true;
+        for (int dx = 0; dx < orientation.width(); dx++) {
+            int x = curX + orientation.minX() + dx;
+            int bottom = orientation.bottom(dx);
+            if (bottom == Integer.MIN_VALUE) {
+                continue; // column of the bounding box without a cell
+            }
+            if (x < 0 || x >= width || curY - bottom < skyline[x]) {
+                aboveSkyline = false;
+                break;
+            }
+            // the lowest cell of the column has to stay on top of the skyline
+            landingY = Math.max(landingY, skyline[x] + bottom);
+        }
+        if (aboveSkyline) {
+            return landingY;
+        }
+        int newY = curY;
+        while (newY > 0 && fits(orientation, curX, newY - 1)) {
+            newY--;
+        }
+        return newY;
+    }
+
+    private boolean playerMove(Shape.Orientation orientation, int newX, int newY) {
+        if (!tryMove(orientation, newX, newY)) {
+            return false;
+        }
+        publish();
+        listener.pieceMoved();
+        return true;
+    }
+
+    // true while a piece is falling, false between a line clear and the next tick and after game over
+    private boolean hasFallingPiece() {
+        return curPiece.getShape() != Shape.Tetrominoes.NoShape;
+    }
+
+    private void oneLineDown() {
+        if (!tryMove(curPiece.getOrientation(), curX, curY - 1)) {
+            pieceDropped();
+        }
+    }
+
+    // handles logic when piece is dropped
+    private void pieceDropped() {
+        if (!hasFallingPiece()) {
+            return;
+        }
+        for (int i = 0; i < 4; i++) {
+            int x = curX + curPiece.x(i);
+            int y = curY - curPiece.y(i);
+            board[y][x] = curPiece.getShape();
+            rowFill[y]++;
+            skyline[x] = Math.max(skyline[x], y + 1);
+        }
+
+        // only the rows the piece landed in can have become full
+        removeFullLines(curY - curPiece.maxY(), curY - curPiece.minY());
+
+        // if piece is finished falling creates new piece
+        if (!isFallingFinished) {
+            newPiece();
+        }
+    }
+
+    // moves the next piece to the top of board and draws a new next piece
+    private void newPiece() {
+        curPiece.setShape(nextPiece.getShape());
+        nextPiece.setShape(pieces.next());
+        piecesSpawned++;
+        curX = width / 2 + 1;
+        curY = height - 1 + curPiece.minY();
+
+        // checks if the new piece can be placed if not game ends
+        if (!tryMove(curPiece.getOrientation(), curX, curY)) {
+            if (!isGameOver) {
+                curPiece.setShape(Shape.Tetrominoes.NoShape);
+                isStarted = false;
+                isGameOver = true;
+                publish(); // the last frame stays up while the game over is handled
+                listener.gameOver();
+            }
+            return;
+        }
+        listener.pieceSpawned();
+    }
+
+    // tries to move the current piece to new position and orientation
+    private boolean tryMove(Shape.Orientation newOrientation, int newX, int newY) {
+        if (!fits(newOrientation, newX, newY)) {
+            return false;
+        }
+        curPiece.setOrientation(newOrientation);
+        curX = newX;
+        curY = newY;
+        listener.boardChanged();
+        return true;
+    }
+
+    // check if a piece in orientation fits on the board at newX/newY
+    private boolean fits(Shape.Orientation orientation, int newX, int newY) {
+        for (int i = 0; i < 4; i++) {
+            int x = newX + orientation.x(i);
+            int y = newY - orientation.y(i);
+            // if new position is out of bounds return false
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                return false;
+            }
+            if (board[y][x] != Shape.Tetrominoes.NoShape) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // stores a snapshot of the finished change for other threads
+    private void publish() {
+        if (publishing) {
+            published = GameState.of(this);
+        }
+    }
+
+    // moves the skyline of column x down to its highest filled cell
+    private void lowerSkyline(int x) {
+        int top = Math.min(skyline[x], height);
+        while (top > 0 && board[top - 1][x] == Shape.Tetrominoes.NoShape) {
+            top--;
+        }
+        skyline[x] = top;
+    }
+
+    // removes full lines between rows low and high and updates score and level. Rows
+    // are moved down in a single pass from the bottom by moving row references, and the
+    // emptied row arrays are cleared and reused at the top.
+    private void removeFullLines(int low, int high) {
+        int numFullLines = 0; // initialise counter for number of full lines
+        for (int i = Math.max(0, low); i <= Math.min(height - 1, high); i++) {
+            if (rowFill[i] == width) {
+                if (numFullLines == clearedRows.length) {
+                    clearedRows = Arrays.copyOf(clearedRows, numFullLines * 2);
+                    removedRows = Arrays.copyOf(removedRows, numFullLines * 2);
+                }
+                clearedRows[numFullLines++] = i;
+            }
+        }
+        if (numFullLines == 0) {
+            return;
+        }
+
+        // every row keeps its place until the first full row, then moves down one per full row below it
+        int write = clearedRows[0];
+        int next = 0; // index of the next full row to skip
+        for (int read = clearedRows[0]; read < height; read++) {
+            if (next < numFullLines && read == clearedRows[next]) {
+                removedRows[next++] = board[read];
+                listener.lineRemoved();
+                continue;
+            }
+            board[write] = board[read];
+            rowFill[write] = rowFill[read];
+            write++;
+        }
+        // the removed rows come back empty at the top
+        for (int i = 0; i < numFullLines; i++, write++) {
+            Arrays.fill(removedRows[i], Shape.Tetrominoes.NoShape);
+            board[write] = removedRows[i];
+            removedRows[i] = null;
+            rowFill[write] = 0;
+        }
+        for (int x = 0; x < width; x++) {
+            lowerSkyline(x);
+        }
+        listener.rowsCleared(clearedRows, numFullLines);
+
+        // update score and game
+        numLinesRemoved += numFullLines;
+        score += calculateScore(numFullLines); // Calculate score based on number of rows removed
+        updateLevel(); // Check for level progression
+        isFallingFinished = true;
+        curPiece.setShape(Shape.Tetrominoes.NoShape);
+        listener.linesCleared(numFullLines);
+    }
+
+    // Scoring logic based on the number of rows removed at once
+    public static int calculateScore(int linesRemoved) {
+        switch (linesRemoved) {
+            case 1:
+                return 100;
+            case 2:
+                return 300;
+            case 3:
+                return 600;
+            case 4:
+                return 1000;
+            default:
+                return 0;
+        }
+    }
+
+    // Method to update the player's level based on the number of lines erased
+    private void updateLevel() {
+        int newLevel = numLinesRemoved / 10 + 1; // Every 10 rows, increase the level
+        if (newLevel > gameLevel) {
+            gameLevel = newLevel;
+            gameLevel++; // the level has always gone up one more on a level up
+            listener.levelUp(gameLevel);
+        }
+    }
+
+    // Private helper method to clear the game board
+    private void clearBoard() {
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                board[i][j] = Shape.Tetrominoes.NoShape;
+            }
+            rowFill[i] = 0;
+        }
+        Arrays.fill(skyline, 0);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // return the board and its current values, row 0 is the bottom
+    public Shape.Tetrominoes[][] getBoard() {
+        return board;
+    }
+
+    // returns shape at x and y position on board
+    public Shape.Tetrominoes shapeAt(int x, int y) {
+        return board[y][x];
+    }
+
+    // the falling piece, NoShape between a line clear and the next tick
+    public Shape getCurrentPiece() {
+        return curPiece;
+    }
+
+    // return the piece that spawns next
+    public Shape getNextPiece() {
+        return nextPiece;
+    }
+
+    // the pieces after the next piece, peek(0) spawns after getNextPiece()
+    public PieceQueue getPieceQueue() {
+        return pieces;
+    }
+
+    public int getCurX() {
+        return curX;
+    }
+
+    public int getCurY() {
+        return curY;
+    }
+
+    // check if the last piece cleared lines and the next one spawns on the next tick
+    public boolean isFallingFinished() {
+        return isFallingFinished;
+    }
+
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    public boolean isGameOver() {
+        return isGameOver;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLinesRemoved() {
+        return numLinesRemoved;
+    }
+
+    public int getLevel() {
+        return gameLevel;
+    }
+
+    // pieces spawned since the game started, including the one falling now
+    public long getPiecesSpawned() {
+        return piecesSpawned;
+    }
+}
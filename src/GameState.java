@@ -1,16 +1,392 @@
 // File: src/GameState.java
-public class GameState {
-    // Define fields representing the game state
-    // Example:
-    int[][] board; // The game board
-    int currentTetromino; // Current tetromino index
 
-    // Constructor, getters, and setters
-    public GameState() {
-        // Initialize with default values or actual game state
-        board = new int[20][10]; // Example dimensions
-        currentTetromino = 0; // Example index
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+// Immutable snapshot of a game: the board, the falling and next pieces, and the score.
+// Each board row is one long holding 3 bits per cell (the shape ordinal, 0 for empty),
+// so a 10 x 20 board is 20 longs instead of 200 enum references, and a snapshot can be
+// shared between threads, cached or sent without copying. Row 0 is the bottom row, the
+// same as GameEngine.
+//
+// Binary layout, big endian, written by writeTo and read by readFrom:
+//   byte   version (2)
+//   byte   width, byte height (up to 21 x 255)
+//   byte   current piece, byte next piece (shape ordinals)
+//   byte   rotation (right turns from the spawn rotation)
+//   short  x, short y (position of the current piece)
+//   short  ghost y (row the current piece would land on if dropped)
+//   int    score, int lines, int level
+//   long   rows[height]
+public final class GameState {
+    public static final int VERSION = 2;
+
+    // widest board whose row fits in one long at 3 bits per cell
+    public static final int MAX_WIDTH = 21;
+
+    private static final int HEADER_BYTES = 6 + 3 * Short.BYTES + 3 * Integer.BYTES;
+    private static final Shape.Tetrominoes[] SHAPES = Shape.Tetrominoes.values();
+
+    private final int width;
+    private final int height;
+    private final long[] rows;
+    private final Shape.Tetrominoes currentPiece;
+    private final Shape.Tetrominoes nextPiece;
+    private final int rotation;
+    private final int x;
+    private final int y;
+    private final int ghostY;
+    private final int score;
+    private final int lines;
+    private final int level;
+    private final int hash;
+
+    private GameState(int width, int height, long[] rows, Shape.Tetrominoes currentPiece,
+            Shape.Tetrominoes nextPiece, int rotation, int x, int y, int ghostY, int score, int lines, int level) {
+        if (width < 1 || width > MAX_WIDTH || height > 255) {
+            throw new IllegalArgumentException("Board size must be at most " + MAX_WIDTH + " x 255: " + width + " x "
+                    + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.rows = rows;
+        this.currentPiece = currentPiece;
+        this.nextPiece = nextPiece;
+        this.rotation = rotation & 3;
+        this.x = x;
+        this.y = y;
+        this.ghostY = ghostY;
+        this.score = score;
+        this.lines = lines;
+        this.level = level;
+        this.hash = computeHash();
+    }
+
+    // snapshot of a game in progress
+    public static GameState of(GameEngine engine) {
+        Shape current = engine.getCurrentPiece();
+        return new GameState(engine.getWidth(), engine.getHeight(), pack(engine.getBoard()), current.getShape(),
+                engine.getNextPiece().getShape(), current.getOrientation().getRotation(), engine.getCurX(),
+                engine.getCurY(), engine.getGhostY(), engine.getScore(), engine.getLinesRemoved(), engine.getLevel());
+    }
+
+    // snapshot of a shape grid and pieces, nextPiece may be null when it is not known
+    public static GameState of(Shape.Tetrominoes[][] cells, Shape currentPiece, Shape nextPiece) {
+        return new GameState(cells[0].length, cells.length, pack(cells), currentPiece.getShape(),
+                nextPiece == null ? Shape.Tetrominoes.NoShape : nextPiece.getShape(),
+                currentPiece.getOrientation().getRotation(), 0, 0, 0, 0, 0, 0);
+    }
+
+    // packs every row of a grid into a long
+    private static long[] pack(Shape.Tetrominoes[][] cells) {
+        long[] rows = new long[cells.length];
+        for (int row = 0; row < cells.length; row++) {
+            long packed = 0;
+            Shape.Tetrominoes[] cellRow = cells[row];
+            for (int col = 0; col < cellRow.length; col++) {
+                packed |= (long) cellRow[col].ordinal() << (3 * col);
+            }
+            rows[row] = packed;
+        }
+        return rows;
+    }
+
+    // builds a snapshot from its parts, for decoders that fill in a board cell by cell
+    public static final class Builder {
+        private final int width;
+        private final int height;
+        private final long[] rows;
+        private Shape.Tetrominoes currentPiece = Shape.Tetrominoes.NoShape;
+        private Shape.Tetrominoes nextPiece = Shape.Tetrominoes.NoShape;
+        private int rotation;
+        private int x;
+        private int y;
+        private int ghostY;
+        private int score;
+        private int lines;
+        private int level;
+
+        public Builder(int width, int height) {
+            if (width < 1 || width > MAX_WIDTH) {
+                throw new IllegalArgumentException("Board width must be between 1 and " + MAX_WIDTH + ": " + width);
+            }
+            this.width = width;
+            this.height = height;
+            this.rows = new long[height];
+        }
+
+        public Builder cell(int col, int row, Shape.Tetrominoes shape) {
+            rows[row] = (rows[row] & ~(7L << (3 * col))) | (long) shape.ordinal() << (3 * col);
+            return this;
+        }
+
+        // sets a whole packed row
+        public Builder row(int row, long packed) {
+            rows[row] = packed;
+            return this;
+        }
+
+        // sets a row from a bit mask of its filled cells, bit x for column x, every filled
+        // cell holding the same shape
+        public Builder occupancy(int row, int mask, Shape.Tetrominoes fill) {
+            long packed = 0;
+            long code = fill.ordinal();
+            for (int col = 0; col < width; col++) {
+                if ((mask >>> col & 1) != 0) {
+                    packed |= code << (3 * col);
+                }
+            }
+            rows[row] = packed;
+            return this;
+        }
+
+        public Builder currentPiece(Shape.Tetrominoes currentPiece, int rotation) {
+            this.currentPiece = currentPiece;
+            this.rotation = rotation;
+            return this;
+        }
+
+        public Builder nextPiece(Shape.Tetrominoes nextPiece) {
+            this.nextPiece = nextPiece == null ? Shape.Tetrominoes.NoShape : nextPiece;
+            return this;
+        }
+
+        // sets the position of the current piece, and its landing row to the same row
+        public Builder position(int x, int y) {
+            this.x = x;
+            this.y = y;
+            this.ghostY = y;
+            return this;
+        }
+
+        // sets the row the current piece would land on
+        public Builder ghostY(int ghostY) {
+            this.ghostY = ghostY;
+            return this;
+        }
+
+        public Builder score(int score, int lines, int level) {
+            this.score = score;
+            this.lines = lines;
+            this.level = level;
+            return this;
+        }
+
+        public GameState build() {
+            return new GameState(width, height, rows.clone(), currentPiece, nextPiece, rotation, x, y, ghostY,
+                    score, lines, level);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // shape at a cell, NoShape when empty
+    public Shape.Tetrominoes shapeAt(int col, int row) {
+        return SHAPES[(int) (rows[row] >>> (3 * col)) & 7];
+    }
+
+    public boolean isOccupied(int col, int row) {
+        return (rows[row] >>> (3 * col) & 7) != 0;
+    }
+
+    // packed row, 3 bits per cell with column 0 in the lowest bits
+    public long getRow(int row) {
+        return rows[row];
+    }
+
+    // bit mask of the filled cells of a row, bit x for column x
+    public int occupancy(int row) {
+        long packed = rows[row];
+        int mask = 0;
+        for (int col = 0; col < width; col++, packed >>>= 3) {
+            if ((packed & 7) != 0) {
+                mask |= 1 << col;
+            }
+        }
+        return mask;
+    }
+
+    // copies the board into a new shape grid
+    public Shape.Tetrominoes[][] toCells() {
+        Shape.Tetrominoes[][] cells = new Shape.Tetrominoes[height][width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                cells[row][col] = shapeAt(col, row);
+            }
+        }
+        return cells;
+    }
+
+    public Shape.Tetrominoes getCurrentPiece() {
+        return currentPiece;
+    }
+
+    public Shape.Tetrominoes getNextPiece() {
+        return nextPiece;
+    }
+
+    // right turns of the current piece from its spawn rotation
+    public int getRotation() {
+        return rotation;
+    }
+
+    // orientation of the current piece
+    public Shape.Orientation getOrientation() {
+        return Shape.orientation(currentPiece, rotation);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    // row the current piece would land on if dropped, where the ghost piece is drawn
+    public int getGhostY() {
+        return ghostY;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public int getLevel() {
+        return level;
     }
 
-    // Add methods to populate and manage the game state
+    // bytes written by writeTo
+    public int byteSize() {
+        return HEADER_BYTES + Long.BYTES * height;
+    }
+
+    // writes the snapshot in the binary layout above
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        out.writeByte(width);
+        out.writeByte(height);
+        out.writeByte(currentPiece.ordinal());
+        out.writeByte(nextPiece.ordinal());
+        out.writeByte(rotation);
+        out.writeShort(x);
+        out.writeShort(y);
+        out.writeShort(ghostY);
+        out.writeInt(score);
+        out.writeInt(lines);
+        out.writeInt(level);
+        for (long row : rows) {
+            out.writeLong(row);
+        }
+    }
+
+    // reads a snapshot written by writeTo
+    public static GameState readFrom(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported game state version " + version);
+        }
+        int width = in.readUnsignedByte();
+        int height = in.readUnsignedByte();
+        Shape.Tetrominoes currentPiece = shape(in.readUnsignedByte());
+        Shape.Tetrominoes nextPiece = shape(in.readUnsignedByte());
+        int rotation = in.readUnsignedByte();
+        int x = in.readShort();
+        int y = in.readShort();
+        int ghostY = in.readShort();
+        int score = in.readInt();
+        int lines = in.readInt();
+        int level = in.readInt();
+        if (width < 1 || width > MAX_WIDTH) {
+            throw new IOException("Bad board width " + width);
+        }
+        long[] rows = new long[height];
+        for (int row = 0; row < height; row++) {
+            rows[row] = in.readLong();
+        }
+        return new GameState(width, height, rows, currentPiece, nextPiece, rotation, x, y, ghostY, score, lines,
+                level);
+    }
+
+    private static Shape.Tetrominoes shape(int ordinal) throws IOException {
+        if (ordinal >= SHAPES.length) {
+            throw new IOException("Bad shape id " + ordinal);
+        }
+        return SHAPES[ordinal];
+    }
+
+    // the snapshot in its binary layout
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(byteSize());
+        try {
+            writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // byte arrays do not fail
+        }
+        return bytes.toByteArray();
+    }
+
+    // reads a snapshot from its binary layout
+    public static GameState fromBytes(byte[] bytes) throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private int computeHash() {
+        int result = Arrays.hashCode(rows);
+        result = 31 * result + width;
+        result = 31 * result + currentPiece.ordinal();
+        result = 31 * result + nextPiece.ordinal();
+        result = 31 * result + rotation;
+        result = 31 * result + x;
+        result = 31 * result + y;
+        result = 31 * result + ghostY;
+        result = 31 * result + score;
+        result = 31 * result + lines;
+        result = 31 * result + level;
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GameState)) {
+            return false;
+        }
+        GameState other = (GameState) o;
+        return hash == other.hash && width == other.width && height == other.height
+                && currentPiece == other.currentPiece && nextPiece == other.nextPiece && rotation == other.rotation
+                && x == other.x && y == other.y && ghostY == other.ghostY && score == other.score && lines == other.lines
+                && level == other.level && Arrays.equals(rows, other.rows);
+    }
+
+    @Override
+    public String toString() {
+        return "GameState [width=" + width + ", height=" + height + ", currentPiece=" + currentPiece + ", nextPiece="
+                + nextPiece + ", rotation=" + rotation + ", x=" + x + ", y=" + y + ", ghostY=" + ghostY + ", score=" + score + ", lines="
+                + lines + ", level=" + level + "]";
+    }
 }
@@ -0,0 +1,143 @@
+// File: src/IncrementalEvaluator.java
+
+// Scores candidate placements from the change they make to a base board instead of
+// re-scanning the whole board. reset caches per-column heights, per-column holes and
+// per-row fill counts once per piece, after which each placement only looks at the (at
+// most 4) columns and rows it touches. The features match BoardEvaluator.extractFeatures
+// on the board with the piece placed.
+public class IncrementalEvaluator {
+    private BitBoard base;
+    private int width;
+    private int height;
+
+    // cached features of the base board
+    private int[] heights = new int[0];
+    private int[] holes = new int[0];
+    private int[] rowFill = new int[0];
+    private int baseMaxHeight;
+    private int baseHoles;
+    private int baseLines;
+    private int baseBumpiness;
+
+    // new heights of the columns a placement touches, indexed from its leftmost column
+    private final int[] touchedHeights = new int[4];
+
+    // caches the features of a board, call again whenever the board changes
+    public void reset(BitBoard board) {
+        base = board;
+        width = board.getWidth();
+        height = board.getHeight();
+        if (heights.length < width) {
+            heights = new int[width];
+            holes = new int[width];
+        }
+        if (rowFill.length < height) {
+            rowFill = new int[height];
+        }
+        for (int x = 0; x < width; x++) {
+            heights[x] = 0;
+            holes[x] = 0;
+        }
+
+        int fullRow = board.getFullRow();
+        int seen = 0;
+        baseLines = 0;
+        for (int y = 0; y < height; y++) {
+            int row = board.getRow(y);
+            int fresh = row & ~seen;
+            while (fresh != 0) {
+                heights[Integer.numberOfTrailingZeros(fresh)] = height - y;
+                fresh &= fresh - 1;
+            }
+            int empty = ~row & seen & fullRow;
+            while (empty != 0) {
+                holes[Integer.numberOfTrailingZeros(empty)]++;
+                empty &= empty - 1;
+            }
+            seen |= row;
+            rowFill[y] = Integer.bitCount(row);
+            if (row == fullRow) {
+                baseLines++;
+            }
+        }
+
+        baseMaxHeight = 0;
+        baseHoles = 0;
+        baseBumpiness = 0;
+        for (int x = 0; x < width; x++) {
+            baseMaxHeight = Math.max(baseMaxHeight, heights[x]);
+            baseHoles += holes[x];
+            if (x < width - 1) {
+                baseBumpiness += Math.abs(heights[x] - heights[x + 1]);
+            }
+        }
+    }
+
+    // fills out with the features the base board would have with piece placed at col/row
+    public void extractFeatures(BitBoard.Piece piece, int col, int row, int[] out) {
+        int shift = col + piece.getMinX();
+        int top = row + piece.getMinY();
+        int pieceWidth = piece.getWidth();
+        int pieceHeight = piece.getHeight();
+
+        // rows that the piece completes
+        int lines = baseLines;
+        for (int i = 0; i < pieceHeight; i++) {
+            if (rowFill[top + i] + Integer.bitCount(piece.rowMask(i)) == width) {
+                lines++;
+            }
+        }
+
+        // columns the piece covers: new top, and holes covered or filled
+        int maxHeight = baseMaxHeight;
+        int holeCount = baseHoles;
+        for (int c = 0; c < pieceWidth; c++) {
+            int x = shift + c;
+            int oldTop = height - heights[x]; // first filled row, or height if the column is empty
+            int newTop = oldTop;
+            int above = 0;
+            int below = 0;
+            for (int i = 0; i < pieceHeight; i++) {
+                if ((piece.rowMask(i) & (1 << c)) == 0) {
+                    continue;
+                }
+                int y = top + i;
+                if (y < oldTop) {
+                    above++;
+                    newTop = Math.min(newTop, y);
+                } else {
+                    below++; // fills a hole under an overhang
+                }
+            }
+            // empty cells between the new top and the old top become holes
+            holeCount += (oldTop - newTop) - above - below;
+            touchedHeights[c] = height - newTop;
+            maxHeight = Math.max(maxHeight, touchedHeights[c]);
+        }
+
+        // only pairs next to a touched column change bumpiness
+        int bumpiness = baseBumpiness;
+        int first = Math.max(shift - 1, 0);
+        int last = Math.min(shift + pieceWidth - 1, width - 2);
+        for (int x = first; x <= last; x++) {
+            bumpiness -= Math.abs(heights[x] - heights[x + 1]);
+            bumpiness += Math.abs(heightAfter(x, shift, pieceWidth) - heightAfter(x + 1, shift, pieceWidth));
+        }
+
+        out[BoardEvaluator.HEIGHT] = maxHeight;
+        out[BoardEvaluator.LINES] = lines;
+        out[BoardEvaluator.HOLES] = holeCount;
+        out[BoardEvaluator.BUMPINESS] = bumpiness;
+    }
+
+    // the board the cached features belong to
+    public BitBoard getBase() {
+        return base;
+    }
+
+    // column height after the placement being scored
+    private int heightAfter(int x, int shift, int pieceWidth) {
+        int c = x - shift;
+        return c >= 0 && c < pieceWidth ? touchedHeights[c] : heights[x];
+    }
+}
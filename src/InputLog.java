@@ -0,0 +1,125 @@
+// File: src/InputLog.java
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+// Every input a SimulationLoop applied, with the tick it was applied on. Together with
+// the engine's seed this is enough to replay a game exactly, whatever produced the
+// inputs (a person, a time-limited AI search or a network client).
+//
+// Entries are packed into a growing long array as tick << 3 | input, so recording a long
+// game does not allocate an object per input.
+public class InputLog {
+    private static final MoveGenerator.Input[] INPUTS = MoveGenerator.Input.values();
+
+    private final PieceGenerator.Kind pieces;
+    private final long seed;
+    private long[] entries = new long[256];
+    private int size = 0;
+
+    // creates an empty log for a game dealt by a generator of the given kind and seed
+    public InputLog(PieceGenerator.Kind pieces, long seed) {
+        this.pieces = pieces;
+        this.seed = seed;
+    }
+
+    // kind of generator that dealt the game's pieces
+    public PieceGenerator.Kind getPieces() {
+        return pieces;
+    }
+
+    // seed of the game's piece sequence
+    public long getSeed() {
+        return seed;
+    }
+
+    // records an input applied on tick, ticks must not go backwards
+    public void add(long tick, MoveGenerator.Input input) {
+        if (size > 0 && tick < getTick(size - 1)) {
+            throw new IllegalArgumentException("Input for tick " + tick + " after tick " + getTick(size - 1));
+        }
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        }
+        entries[size++] = tick << 3 | input.ordinal();
+    }
+
+    // number of recorded inputs
+    public int size() {
+        return size;
+    }
+
+    // tick of entry i
+    public long getTick(int i) {
+        return entries[i] >>> 3;
+    }
+
+    // input of entry i
+    public MoveGenerator.Input getInput(int i) {
+        return INPUTS[(int) (entries[i] & 7)];
+    }
+
+    // removes every input
+    public void clear() {
+        size = 0;
+    }
+
+    // a controller that sends the logged inputs again on the same ticks
+    public SimulationLoop.Controller replay() {
+        return new SimulationLoop.Controller() {
+            private int next = 0;
+
+            @Override
+            public void inputs(GameEngine engine, long tick, SimulationLoop.InputQueue out) {
+                // skip inputs for ticks that have already passed
+                while (next < size && getTick(next) < tick) {
+                    next++;
+                }
+                while (next < size && getTick(next) == tick) {
+                    out.add(getInput(next++));
+                }
+            }
+        };
+    }
+
+    // writes the log as text, "seed <seed> <pieces>" on the first line then one "tick input" line per entry
+    public void write(Writer writer) throws IOException {
+        writer.write("seed " + seed + " " + pieces + "\n");
+        for (int i = 0; i < size; i++) {
+            writer.write(getTick(i) + " " + getInput(i) + "\n");
+        }
+        writer.flush();
+    }
+
+    // reads a log written by write
+    public static InputLog read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        String header = in.readLine();
+        if (header == null || !header.startsWith("seed ")) {
+            throw new IOException("Input log does not start with a seed line");
+        }
+        InputLog log;
+        try {
+            String[] fields = header.trim().split("\\s+");
+            PieceGenerator.Kind pieces = fields.length > 2 ? PieceGenerator.Kind.valueOf(fields[2])
+                    : PieceGenerator.Kind.UNIFORM;
+            log = new InputLog(pieces, Long.parseLong(fields[1]));
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                log.add(Long.parseLong(line.substring(0, space)),
+                        MoveGenerator.Input.valueOf(line.substring(space + 1).trim()));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed input log: " + e.getMessage(), e);
+        }
+        return log;
+    }
+}
@@ -0,0 +1,251 @@
+// File: src/MoveGenerator.java
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Finds every placement a piece can actually reach from where it is, using the same
+// rules as TetrisBoard.tryMove: one column left or right, one row down, or one turn to
+// the right with no wall kicks, and the piece must stay inside the board and off filled
+// cells. A breadth-first search over (x, y, rotation) states reaches every state in the
+// fewest inputs, so the first time a resting position is found its input path is also
+// the shortest one. This includes tucks and slides under overhangs that a straight drop
+// from the top can never reach.
+//
+// Coordinates are the game's: row 0 is the bottom and a piece's cells are at
+// (x + orientation.x(i), y - orientation.y(i)). Internally the board is loaded upside
+// down into a BitBoard so rows grow downwards and the piece's cell offsets line up with
+// its row masks.
+//
+// An instance keeps its search buffers between calls and is not thread safe.
+public class MoveGenerator {
+    // single inputs the executor can send, each one is a single call on TetrisBoard
+    enum Input {
+        LEFT, RIGHT, ROTATE, DOWN, DROP
+    }
+
+    // a resting position of the piece with the shortest input path that reaches it
+    public static final class Placement {
+        private final Shape.Orientation orientation;
+        private final int x;
+        private final int y;
+        private final List<Input> inputs;
+
+        private Placement(Shape.Orientation orientation, int x, int y, List<Input> inputs) {
+            this.orientation = orientation;
+            this.x = x;
+            this.y = y;
+            this.inputs = inputs;
+        }
+
+        public Shape.Orientation getOrientation() {
+            return orientation;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        // inputs from the start state, always ending with DROP
+        public List<Input> getInputs() {
+            return inputs;
+        }
+
+        // check if this placement fills the same cells as orientation at x/y
+        public boolean covers(Shape.Orientation other, int otherX, int otherY) {
+            return orientation.getPiece().sameCells(other.getPiece())
+                    && x + orientation.minX() == otherX + other.minX()
+                    && y - orientation.minY() == otherY - other.minY();
+        }
+
+        @Override
+        public String toString() {
+            return "Placement [shape=" + orientation.getShape() + ", rotation=" + orientation.getRotation() + ", x="
+                    + x + ", y=" + y + ", inputs=" + inputs + "]";
+        }
+    }
+
+    private static final int UNSEEN = -1;
+
+    private BitBoard board = new BitBoard(1, 1);
+    private int[] parent = new int[0];   // state each state was first reached from, UNSEEN if not reached
+    private byte[] via = new byte[0];    // input that reached each state
+    private int[] queue = new int[0];
+    private int[] landing = new int[0];  // state a hard drop from each state ends in
+    private boolean[] placed = new boolean[0];
+
+    // every distinct resting position of the piece starting from orientation at x/y, each
+    // with its shortest input path. Returns an empty list if the start state does not fit.
+    public List<Placement> generate(Shape.Tetrominoes[][] cells, Shape.Orientation start, int x, int y) {
+        int width = cells[0].length;
+        int height = cells.length;
+        load(cells, width, height);
+
+        int startState = state(start.getRotation(), x, height - 1 - y, width, height);
+        if (startState < 0 || !fits(startState, start, width, height)) {
+            return Collections.emptyList();
+        }
+
+        // breadth first, so states come off the queue in order of input count
+        List<Placement> placements = new ArrayList<>();
+        int head = 0;
+        int tail = 0;
+        parent[startState] = startState;
+        queue[tail++] = startState;
+        while (head < tail) {
+            int current = queue[head++];
+            Shape.Orientation orientation = Shape.orientation(start.getShape(), rotationOf(current, width, height));
+            int col = colOf(current, width);
+            int row = rowOf(current, width, height);
+
+            // a hard drop from here locks the piece, keep its path if the spot is new
+            int rest = landing(current, orientation, col, row, width, height);
+            if (!placed[rest]) {
+                placed[rest] = true;
+                int restY = height - 1 - rowOf(rest, width, height);
+                if (!containsCells(placements, orientation, col, restY)) {
+                    placements.add(placement(current, orientation, col, restY));
+                }
+            }
+
+            tail = visit(current, col - 1, row, orientation, Input.LEFT, tail, width, height);
+            tail = visit(current, col + 1, row, orientation, Input.RIGHT, tail, width, height);
+            tail = visit(current, col, row + 1, orientation, Input.DOWN, tail, width, height);
+            tail = visit(current, col, row, orientation.rotateRight(), Input.ROTATE, tail, width, height);
+        }
+        return placements;
+    }
+
+    // shortest input path to the resting position of orientation at x/y, null if it cannot be reached
+    public Placement pathTo(Shape.Tetrominoes[][] cells, Shape.Orientation start, int x, int y,
+            Shape.Orientation target, int targetX, int targetY) {
+        for (Placement placement : generate(cells, start, x, y)) {
+            if (placement.covers(target, targetX, targetY)) {
+                return placement;
+            }
+        }
+        return null;
+    }
+
+    // shortest input path to the spot a straight drop of target in column targetX ends in,
+    // which is where the AI's column and rotation choice lands. Null if it cannot be reached.
+    public Placement pathToDrop(Shape.Tetrominoes[][] cells, Shape.Orientation start, int x, int y,
+            Shape.Orientation target, int targetX) {
+        List<Placement> placements = generate(cells, start, x, y);
+        Placement best = null;
+        for (Placement placement : placements) {
+            // the highest resting spot in the column is the one a straight drop stops at
+            if (placement.orientation.getPiece().sameCells(target.getPiece())
+                    && placement.x + placement.orientation.minX() == targetX + target.minX()
+                    && (best == null || bottom(placement) > bottom(best))) {
+                best = placement;
+            }
+        }
+        return best;
+    }
+
+    // game row of the lowest cell of a placement
+    private static int bottom(Placement placement) {
+        return placement.y - placement.orientation.maxY();
+    }
+
+    // queues the state orientation at col/row if it fits and has not been reached yet
+    private int visit(int from, int col, int row, Shape.Orientation orientation, Input input, int tail, int width,
+            int height) {
+        int next = state(orientation.getRotation(), col, row, width, height);
+        if (next < 0 || parent[next] != UNSEEN || !fits(next, orientation, width, height)) {
+            return tail;
+        }
+        parent[next] = from;
+        via[next] = (byte) input.ordinal();
+        queue[tail] = next;
+        return tail + 1;
+    }
+
+    // state a hard drop from state ends in, cached per state
+    private int landing(int state, Shape.Orientation orientation, int col, int row, int width, int height) {
+        if (landing[state] != UNSEEN) {
+            return landing[state];
+        }
+        int rest = row;
+        while (board.fits(orientation.getPiece(), col, rest + 1)) {
+            rest++;
+        }
+        int restState = state(orientation.getRotation(), col, rest, width, height);
+        // every state on the way down drops to the same spot
+        for (int r = row; r <= rest; r++) {
+            landing[state(orientation.getRotation(), col, r, width, height)] = restState;
+        }
+        return restState;
+    }
+
+    // builds the placement reached by a hard drop from state, with its path from the start
+    private Placement placement(int state, Shape.Orientation orientation, int x, int y) {
+        Input[] inputs = Input.values();
+        List<Input> path = new ArrayList<>();
+        path.add(Input.DROP);
+        for (int s = state; parent[s] != s; s = parent[s]) {
+            path.add(inputs[via[s]]);
+        }
+        Collections.reverse(path);
+        return new Placement(orientation, x, y, Collections.unmodifiableList(path));
+    }
+
+    // check if an earlier placement already fills the same cells, which happens for shapes
+    // whose rotations repeat
+    private static boolean containsCells(List<Placement> placements, Shape.Orientation orientation, int x, int y) {
+        for (Placement placement : placements) {
+            if (placement.covers(orientation, x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean fits(int state, Shape.Orientation orientation, int width, int height) {
+        return board.fits(orientation.getPiece(), colOf(state, width), rowOf(state, width, height));
+    }
+
+    // loads the grid upside down and resets the search buffers
+    private void load(Shape.Tetrominoes[][] cells, int width, int height) {
+        if (board.getWidth() != width || board.getHeight() != height) {
+            board = new BitBoard(width, height);
+            int states = 4 * height * width;
+            parent = new int[states];
+            via = new byte[states];
+            queue = new int[states];
+            landing = new int[states];
+            placed = new boolean[states];
+        }
+        board.load(cells);
+        Arrays.fill(parent, UNSEEN);
+        Arrays.fill(landing, UNSEEN);
+        Arrays.fill(placed, false);
+    }
+
+    // index of an (x, row, rotation) state, -1 if the origin is off the board. Every
+    // orientation has a cell at its origin, so an origin off the board never fits anyway.
+    private static int state(int rotation, int col, int row, int width, int height) {
+        if (col < 0 || col >= width || row < 0 || row >= height) {
+            return -1;
+        }
+        return (rotation * height + row) * width + col;
+    }
+
+    private static int colOf(int state, int width) {
+        return state % width;
+    }
+
+    private static int rowOf(int state, int width, int height) {
+        return state / width % height;
+    }
+
+    private static int rotationOf(int state, int width, int height) {
+        return state / (width * height);
+    }
+}
@@ -0,0 +1,316 @@
+// File: src/NioServer.java
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Non-blocking front end for TetrisServer. One selector thread accepts connections,
+// reads request lines and writes replies for every session, and a fixed pool of workers
+// runs the searches, so thousands of idle or slow sessions cost a selection key and a
+// small Session object each instead of a thread.
+//
+// Reads go into direct buffers from a pool. A session only holds a buffer while it has
+// half a request in it, so idle sessions hold none and memory stays bounded by the
+// sessions that are mid-request. Requests from one session are searched one at a time
+// and answered in order. Workers hand replies back through a queue and wake the selector,
+// which writes them when the socket is ready. A session may have at most MAX_BACKLOG
+// requests that are queued or answered but not yet written; past that the selector stops
+// reading it until its replies drain, so a client that pipelines without reading its
+// replies is slowed down by TCP instead of growing the server's queues.
+//
+// Like TetrisServer, the first byte of a session picks its protocol: WireProtocol frames
+// when it is WireProtocol.MAGIC, JSON lines otherwise.
+public class NioServer {
+    // longest request accepted, a 10 x 20 JSON request is under 3 KB and a binary one 54 bytes
+    static final int MAX_FRAME = 16 * 1024;
+    // requests per session that may be queued, searched or waiting to be written at once
+    static final int MAX_BACKLOG = 16;
+    // free read buffers kept for reuse, more are allocated when needed and dropped on release
+    private static final int POOLED_BUFFERS = 256;
+
+    private final int port;
+    private final ExecutorService workers;
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>(); // selector thread only
+    private final ConcurrentLinkedQueue<Session> writable = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+
+    // a server on port that runs searches on a pool of the given size
+    public NioServer(int port, int workerThreads) {
+        this.port = port;
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    // state of one client connection
+    private final class Session {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer input; // pooled buffer holding a partial request, null when idle
+        private Boolean binary; // protocol, null until the first byte arrives
+        private final TetrisServer.BoardSession board = new TetrisServer.BoardSession(); // binary only
+        // JSON lines and binary payloads waiting for a worker
+        private final ArrayDeque<Object> requests = new ArrayDeque<>();
+        private boolean searching = false; // a worker has this session's oldest request
+        private final ConcurrentLinkedQueue<ByteBuffer> replies = new ConcurrentLinkedQueue<>();
+        // requests submitted whose replies have not all been written, selector thread only
+        private int backlog = 0;
+        private volatile boolean closed = false;
+
+        Session(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        // true while no more requests may be submitted until replies are written
+        boolean isFull() {
+            return backlog >= MAX_BACKLOG;
+        }
+
+        // queues a request, starting a worker on it unless one is busy with this session
+        void submit(Object request) {
+            backlog++;
+            synchronized (requests) {
+                requests.add(request);
+                if (searching) {
+                    return;
+                }
+                searching = true;
+            }
+            workers.execute(this::work);
+        }
+
+        // answers this session's requests in order until none are left
+        private void work() {
+            while (!closed) {
+                Object request;
+                synchronized (requests) {
+                    request = requests.poll();
+                    if (request == null) {
+                        searching = false;
+                        return;
+                    }
+                }
+                ByteBuffer reply;
+                try {
+                    if (request instanceof ByteBuffer) {
+                        reply = TetrisServer.handleBinary((ByteBuffer) request, board);
+                    } else {
+                        String line = TetrisServer.handleRequest((String) request) + "\n";
+                        reply = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                replies.add(reply);
+                writable.add(this);
+                selector.wakeup();
+            }
+        }
+    }
+
+    // runs the selector loop until the thread is interrupted or the server socket fails
+    public void run() throws IOException {
+        try (Selector selector = Selector.open(); ServerSocketChannel server = ServerSocketChannel.open()) {
+            this.selector = selector;
+            server.bind(new InetSocketAddress(port), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Tetris Server (nio) is listening on port " + port);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select();
+                // replies finished by workers since the last select
+                Session ready;
+                while ((ready = writable.poll()) != null) {
+                    if (!ready.closed && ready.key.isValid()) {
+                        ready.key.interestOps(ready.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
+                            accept(server);
+                        } catch (IOException e) {
+                            System.out.println("Could not accept a connection. " + e.getMessage());
+                        }
+                        continue;
+                    }
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(session);
+                        }
+                    } catch (IOException e) {
+                        close(session);
+                    }
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    // accepts every pending connection
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Session(channel, key));
+        }
+    }
+
+    // reads what has arrived and submits every complete request
+    private void read(Session session) throws IOException {
+        if (session.input == null) {
+            session.input = acquireBuffer();
+        }
+        int count = session.channel.read(session.input);
+        if (count < 0) {
+            close(session);
+            return;
+        }
+        process(session);
+    }
+
+    // submits the complete requests in the session's buffer while its backlog allows, and
+    // stops reading the session while the backlog is full
+    private void process(Session session) throws IOException {
+        ByteBuffer input = session.input;
+        if (input == null) {
+            updateInterest(session);
+            return;
+        }
+        input.flip();
+        if (session.binary == null && input.hasRemaining()) {
+            session.binary = input.get(input.position()) == WireProtocol.MAGIC;
+        }
+        if (Boolean.TRUE.equals(session.binary)) {
+            splitFrames(session, input);
+        } else {
+            splitLines(session, input);
+        }
+        if (!input.hasRemaining()) {
+            releaseBuffer(input); // nothing half read, an idle session holds no buffer
+            session.input = null;
+        } else {
+            input.compact();
+            if (!input.hasRemaining() && !session.isFull()) {
+                close(session); // a request longer than MAX_FRAME
+                return;
+            }
+        }
+        updateInterest(session);
+    }
+
+    // reads the session only while its backlog has room, and writes it while it has replies
+    private void updateInterest(Session session) {
+        int ops = session.isFull() ? 0 : SelectionKey.OP_READ;
+        session.key.interestOps(ops);
+        // a worker may have added a reply after the queue looked empty
+        if (!session.replies.isEmpty()) {
+            session.key.interestOps(ops | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // submits every complete JSON line, leaving the position at the first unfinished one
+    private void splitLines(Session session, ByteBuffer input) {
+        int start = input.position();
+        for (int i = start; i < input.limit() && !session.isFull(); i++) {
+            if (input.get(i) == '\n') {
+                int length = i - start;
+                if (length > 0) {
+                    byte[] line = new byte[length];
+                    input.get(start, line);
+                    session.submit(new String(line, StandardCharsets.UTF_8).trim());
+                }
+                start = i + 1;
+            }
+        }
+        input.position(start);
+    }
+
+    // submits every complete binary frame's payload, leaving the position at the first
+    // unfinished frame
+    private void splitFrames(Session session, ByteBuffer input) throws IOException {
+        int length;
+        while (!session.isFull() && (length = WireProtocol.payloadLength(input)) >= 0) {
+            if (length > MAX_FRAME - WireProtocol.FRAME_HEADER_BYTES) {
+                throw new IOException("Frame of " + length + " bytes is too long");
+            }
+            if (input.remaining() < WireProtocol.FRAME_HEADER_BYTES + length) {
+                return;
+            }
+            byte[] payload = new byte[length];
+            input.get(input.position() + WireProtocol.FRAME_HEADER_BYTES, payload);
+            input.position(input.position() + WireProtocol.FRAME_HEADER_BYTES + length);
+            session.submit(ByteBuffer.wrap(payload));
+        }
+    }
+
+    // writes queued replies until they are all sent or the socket is full
+    private void write(Session session) throws IOException {
+        boolean wasFull = session.isFull();
+        ByteBuffer reply;
+        while ((reply = session.replies.peek()) != null) {
+            session.channel.write(reply);
+            if (reply.hasRemaining()) {
+                return; // the socket is full, wait for the next write-ready
+            }
+            session.replies.poll();
+            session.backlog--;
+        }
+        if (wasFull) {
+            process(session); // requests left in the buffer while reading was stopped
+        } else {
+            updateInterest(session);
+        }
+    }
+
+    private void close(Session session) {
+        session.closed = true;
+        session.key.cancel();
+        if (session.input != null) {
+            releaseBuffer(session.input);
+            session.input = null;
+        }
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(MAX_FRAME);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        if (bufferPool.size() < POOLED_BUFFERS) {
+            buffer.clear();
+            bufferPool.push(buffer);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+// File: src/PieceGenerator.java
+
+import java.util.SplittableRandom;
+
+// Source of the shapes a game deals, one stream per board. Generators are seeded so a
+// game can be replayed, draw from a SplittableRandom so dealing a piece never allocates,
+// and split() hands out an independent stream, so parallel games each get their own
+// generator instead of contending on a shared Random.
+//
+// A generator is not thread safe, it belongs to the one game that deals from it.
+public interface PieceGenerator {
+    // strategies for picking the next shape
+    enum Kind {
+        UNIFORM, // every shape has the same chance on every draw, like Shape.setRandomShape
+        BAG;     // deals the 7 shapes in a shuffled bag, so droughts last at most 12 pieces
+
+        // a generator of this kind seeded with seed
+        public PieceGenerator create(long seed) {
+            return create(new SplittableRandom(seed));
+        }
+
+        PieceGenerator create(SplittableRandom random) {
+            return this == BAG ? new BagPieceGenerator(random) : new UniformPieceGenerator(random);
+        }
+    }
+
+    // the next shape, never NoShape
+    Shape.Tetrominoes next();
+
+    // a generator of the same kind with its own stream, split off this one's
+    PieceGenerator split();
+
+    Kind getKind();
+
+    // uniform generator seeded with seed
+    static PieceGenerator uniform(long seed) {
+        return Kind.UNIFORM.create(seed);
+    }
+
+    // 7-bag generator seeded with seed
+    static PieceGenerator sevenBag(long seed) {
+        return Kind.BAG.create(seed);
+    }
+}
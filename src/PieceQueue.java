@@ -0,0 +1,44 @@
+// File: src/PieceQueue.java
+
+// Preview queue over a PieceGenerator. The game takes pieces from the front while the
+// next few can be looked at without taking them, which is what the next piece display,
+// PureGame.nextShape and the AI's lookahead read.
+public class PieceQueue {
+    private final PieceGenerator generator;
+    private final Shape.Tetrominoes[] ring;
+    private int head = 0;
+
+    // queue that keeps previewSize pieces (at least 1) ready
+    public PieceQueue(PieceGenerator generator, int previewSize) {
+        this.generator = generator;
+        this.ring = new Shape.Tetrominoes[Math.max(1, previewSize)];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = generator.next();
+        }
+    }
+
+    // takes the front piece and deals a new one onto the back
+    public Shape.Tetrominoes next() {
+        Shape.Tetrominoes piece = ring[head];
+        ring[head] = generator.next();
+        head = (head + 1) % ring.length;
+        return piece;
+    }
+
+    // the piece that next() returns after i more calls, 0 is the front
+    public Shape.Tetrominoes peek(int i) {
+        if (i < 0 || i >= ring.length) {
+            throw new IndexOutOfBoundsException("Preview " + i + " outside 0.." + (ring.length - 1));
+        }
+        return ring[(head + i) % ring.length];
+    }
+
+    // number of pieces that can be peeked
+    public int getPreviewSize() {
+        return ring.length;
+    }
+
+    public PieceGenerator getGenerator() {
+        return generator;
+    }
+}
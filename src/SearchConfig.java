@@ -0,0 +1,107 @@
+// File: src/SearchConfig.java
+
+// Settings for how far ahead TetrisAI looks. A depth of 1 is the plain one-piece
+// search, depth 2 also places the next piece, and the hidden piece option adds one
+// more ply that averages over all 7 shapes. Expectimax mode instead deepens one ply
+// at a time up to depth, averaging every unknown piece, until the time budget runs out.
+public class SearchConfig {
+    // search algorithm
+    enum Mode {
+        BEAM, EXPECTIMAX
+    }
+
+    private Mode mode = Mode.BEAM;
+    private int depth = 2;              // plies to search, counting the current piece
+    private int beamWidth = 8;          // boards kept after each ply
+    private long timeBudgetMillis = 30; // stays under one gravity tick at level 10 (40 ms)
+    private boolean expectHiddenPiece = false;
+    // candidates in a ply before it is split across the pool. A full beam of 8 on a 10-wide
+    // board is 320, so later plies go parallel while the single-board first ply (40) does not.
+    private int parallelThreshold = 256;
+
+    // default lookahead settings
+    public SearchConfig() {
+    }
+
+    public SearchConfig(int depth, int beamWidth, long timeBudgetMillis, boolean expectHiddenPiece) {
+        setDepth(depth);
+        setBeamWidth(beamWidth);
+        setTimeBudgetMillis(timeBudgetMillis);
+        this.expectHiddenPiece = expectHiddenPiece;
+    }
+
+    // settings for the original one-piece search
+    public static SearchConfig greedy() {
+        return new SearchConfig(1, 1, 0, false);
+    }
+
+    // expectimax with iterative deepening, stopped by the time budget
+    public static SearchConfig expectimax() {
+        SearchConfig config = new SearchConfig(4, 6, 30, true);
+        config.setMode(Mode.EXPECTIMAX);
+        return config;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Search depth must be at least 1: " + depth);
+        }
+        this.depth = depth;
+    }
+
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+    public void setBeamWidth(int beamWidth) {
+        if (beamWidth < 1) {
+            throw new IllegalArgumentException("Beam width must be at least 1: " + beamWidth);
+        }
+        this.beamWidth = beamWidth;
+    }
+
+    // 0 means no time limit
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = Math.max(0, timeBudgetMillis);
+    }
+
+    public boolean isExpectHiddenPiece() {
+        return expectHiddenPiece;
+    }
+
+    public void setExpectHiddenPiece(boolean expectHiddenPiece) {
+        this.expectHiddenPiece = expectHiddenPiece;
+    }
+
+    // plies with fewer candidates than this stay on the calling thread, where forking costs more than it saves
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = Math.max(0, parallelThreshold);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchConfig [mode=" + mode + ", depth=" + depth + ", beamWidth=" + beamWidth + ", timeBudgetMillis="
+                + timeBudgetMillis + ", expectHiddenPiece=" + expectHiddenPiece + ", parallelThreshold="
+                + parallelThreshold + "]";
+    }
+}
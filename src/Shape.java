@@ -1,4 +1,4 @@
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Shape {
     // Enum representing the different tetromino shapes
@@ -6,62 +6,62 @@ public class Shape {
         NoShape, ZShape, SShape, LineShape, TShape, SquareShape, LShape, MirroredLShape
     }
 
+    // co-ordinates for every shape in its spawn rotation
+    private static final int[][][] COORDS_TABLE = new int[][][] {
+            { { 0, 0 }, { 0, 0 }, { 0, 0 }, { 0, 0 } }, // no shape
+            { { 0, -1 }, { 0, 0 }, { -1, 0 }, { -1, 1 } }, // zshape
+            { { 0, -1 }, { 0, 0 }, { 1, 0 }, { 1, 1 } }, // sshape
+            { { 0, -1 }, { 0, 0 }, { 0, 1 }, { 0, 2 } }, // lineshape
+            { { -1, 0 }, { 0, 0 }, { 1, 0 }, { 0, 1 } }, // tshape
+            { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 1, 1 } }, // squareshape
+            { { -1, -1 }, { 0, -1 }, { 0, 0 }, { 0, 1 } }, // lshape
+            { { 1, -1 }, { 0, -1 }, { 0, 0 }, { 0, 1 } } // mirroredlshape
+    };
+
+    // every rotation of every shape, built once and shared by all shapes
+    private static final Orientation[][] ORIENTATIONS = buildOrientations();
+
     // the current shape
     private Tetrominoes pieceShape;
 
-    // array to store the co-ordinated of the current tetromino piece
-    private int[][] coords;
-
-    // lookup table to store the co-ordinates for all shapes
-    private int[][][] coordsTable;
+    // the current rotation of the shape, points into the shared table
+    private Orientation orientation;
 
     // constructor to initialize the shape with a default noshape
     public Shape() {
-        coords = new int[4][2]; // each shape has 4 blocks, each with x and y coordinates
         setShape(Tetrominoes.NoShape); // initialize with noshape
     }
 
     // method to set the shape of the tetromino
     public void setShape(Tetrominoes shape) {
-        // define the coordinates for each shape
-        coordsTable = new int[][][] {
-                { { 0, 0 }, { 0, 0 }, { 0, 0 }, { 0, 0 } }, // no shape
-                { { 0, -1 }, { 0, 0 }, { -1, 0 }, { -1, 1 } }, // zshape
-                { { 0, -1 }, { 0, 0 }, { 1, 0 }, { 1, 1 } }, // sshape
-                { { 0, -1 }, { 0, 0 }, { 0, 1 }, { 0, 2 } }, // lineshape
-                { { -1, 0 }, { 0, 0 }, { 1, 0 }, { 0, 1 } }, // tshape
-                { { 0, 0 }, { 1, 0 }, { 0, 1 }, { 1, 1 } }, // squareshape
-                { { -1, -1 }, { 0, -1 }, { 0, 0 }, { 0, 1 } }, // lshape
-                { { 1, -1 }, { 0, -1 }, { 0, 0 }, { 0, 1 } } // mirroredlshape
-        };
-
-        // assign the coordinates of the selected shape to current shape
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 2; ++j) {
-                coords[i][j] = coordsTable[shape.ordinal()][i][j];
-            }
-        }
         pieceShape = shape; // update current shape
+        orientation = ORIENTATIONS[shape.ordinal()][0];
+    }
+
+    // returns the orientation of a shape after a number of right rotations
+    public static Orientation orientation(Tetrominoes shape, int rotation) {
+        return ORIENTATIONS[shape.ordinal()][rotation & 3];
     }
 
-    // method to set x coordinate
-    private void setX(int index, int x) {
-        coords[index][0] = x;
+    // returns the current orientation
+    public Orientation getOrientation() {
+        return orientation;
     }
 
-    // method to set y coordinate
-    private void setY(int index, int y) {
-        coords[index][1] = y;
+    // switches to another orientation, which also sets the shape
+    public void setOrientation(Orientation orientation) {
+        this.pieceShape = orientation.getShape();
+        this.orientation = orientation;
     }
 
     // method to get x coordinate
     public int x(int index) {
-        return coords[index][0];
+        return orientation.x(index);
     }
 
     // method to get y coordinate
     public int y(int index) {
-        return coords[index][1];
+        return orientation.y(index);
     }
 
     // method to get the current shape
@@ -71,28 +71,29 @@ public class Shape {
 
     // method to randomly select and set a new shape
     public void setRandomShape() {
-        Random r = new Random();
-        int x = Math.abs(r.nextInt()) % 7 + 1; // select a random shape
+        int x = ThreadLocalRandom.current().nextInt(7) + 1; // select a random shape
         Tetrominoes[] values = Tetrominoes.values();
         setShape(values[x]);
     }
 
     // method to find the minimum x coordinates in the current shape
     public int minX() {
-        int m = coords[0][0];
-        for (int i = 0; i < 4; i++) {
-            m = Math.min(m, coords[i][0]);
-        }
-        return m;
+        return orientation.minX();
     }
 
     // method to find the minimum y coordinate in the current shape
     public int minY() {
-        int m = coords[0][1];
-        for (int i = 0; i < 4; i++) {
-            m = Math.min(m, coords[i][1]);
-        }
-        return m;
+        return orientation.minY();
+    }
+
+    // method to find the maximum x coordinate in the current shape
+    public int maxX() {
+        return orientation.maxX();
+    }
+
+    // method to find the maximum y coordinate in the current shape
+    public int maxY() {
+        return orientation.maxY();
     }
 
     // method to rotate the shape 90 degrees to the left
@@ -103,13 +104,7 @@ public class Shape {
         }
 
         Shape result = new Shape();
-        result.pieceShape = pieceShape;
-
-        // rotate shape
-        for (int i = 0; i < 4; ++i) {
-            result.setX(i, y(i));
-            result.setY(i, -x(i));
-        }
+        result.setOrientation(orientation.rotateLeft());
         return result;
     }
 
@@ -120,13 +115,144 @@ public class Shape {
         }
 
         Shape result = new Shape();
-        result.pieceShape = pieceShape;
+        result.setOrientation(orientation.rotateRight());
+        return result;
+    }
 
-        // rotates the shape
-        for (int i = 0; i < 4; ++i) {
-            result.setX(i, -y(i));
-            result.setY(i, x(i));
+    // builds all rotations by turning each spawn rotation right, (x, y) -> (-y, x)
+    private static Orientation[][] buildOrientations() {
+        Tetrominoes[] values = Tetrominoes.values();
+        Orientation[][] table = new Orientation[values.length][4];
+        for (Tetrominoes shape : values) {
+            int[] xs = new int[4];
+            int[] ys = new int[4];
+            for (int i = 0; i < 4; i++) {
+                xs[i] = COORDS_TABLE[shape.ordinal()][i][0];
+                ys[i] = COORDS_TABLE[shape.ordinal()][i][1];
+            }
+            for (int rotation = 0; rotation < 4; rotation++) {
+                table[shape.ordinal()][rotation] = new Orientation(shape, rotation, xs, ys);
+                // square shape doesnt change when rotated
+                if (shape == Tetrominoes.SquareShape) {
+                    continue;
+                }
+                int[] nextXs = new int[4];
+                int[] nextYs = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    nextXs[i] = -ys[i];
+                    nextYs[i] = xs[i];
+                }
+                xs = nextXs;
+                ys = nextYs;
+            }
+        }
+        return table;
+    }
+
+    // one rotation of a shape with its bounding box, shared and never modified
+    public static final class Orientation {
+        private final Tetrominoes shape;
+        private final int rotation;
+        private final int[] xs;
+        private final int[] ys;
+        private final int minX;
+        private final int maxX;
+        private final int minY;
+        private final int maxY;
+        private final int[] bottoms; // largest y offset in each column of the bounding box
+        private final BitBoard.Piece piece;
+
+        private Orientation(Tetrominoes shape, int rotation, int[] xs, int[] ys) {
+            this.shape = shape;
+            this.rotation = rotation;
+            this.xs = xs;
+            this.ys = ys;
+            int lowX = xs[0], highX = xs[0], lowY = ys[0], highY = ys[0];
+            for (int i = 1; i < 4; i++) {
+                lowX = Math.min(lowX, xs[i]);
+                highX = Math.max(highX, xs[i]);
+                lowY = Math.min(lowY, ys[i]);
+                highY = Math.max(highY, ys[i]);
+            }
+            this.minX = lowX;
+            this.maxX = highX;
+            this.minY = lowY;
+            this.maxY = highY;
+            this.bottoms = new int[highX - lowX + 1];
+            java.util.Arrays.fill(bottoms, Integer.MIN_VALUE);
+            for (int i = 0; i < 4; i++) {
+                bottoms[xs[i] - lowX] = Math.max(bottoms[xs[i] - lowX], ys[i]);
+            }
+            this.piece = BitBoard.Piece.of(shape, xs, ys);
+        }
+
+        public Tetrominoes getShape() {
+            return shape;
+        }
+
+        // number of right rotations from the spawn rotation
+        public int getRotation() {
+            return rotation;
+        }
+
+        public int x(int index) {
+            return xs[index];
+        }
+
+        public int y(int index) {
+            return ys[index];
+        }
+
+        public int minX() {
+            return minX;
+        }
+
+        public int maxX() {
+            return maxX;
+        }
+
+        public int minY() {
+            return minY;
+        }
+
+        public int maxY() {
+            return maxY;
+        }
+
+        // bounding box width in cells
+        public int width() {
+            return maxX - minX + 1;
+        }
+
+        // bounding box height in cells
+        public int height() {
+            return maxY - minY + 1;
+        }
+
+        // largest y offset of the cells in column minX + dx, which is the lowest cell on the
+        // game board where a cell sits at y - offset
+        public int bottom(int dx) {
+            return bottoms[dx];
+        }
+
+        // row masks of this orientation for bitboard collision checks
+        public BitBoard.Piece getPiece() {
+            return piece;
+        }
+
+        // orientation after turning right
+        public Orientation rotateRight() {
+            return ORIENTATIONS[shape.ordinal()][(rotation + 1) & 3];
+        }
+
+        // orientation after turning left
+        public Orientation rotateLeft() {
+            return ORIENTATIONS[shape.ordinal()][(rotation + 3) & 3];
+        }
+
+        // orientation after a number of right turns
+        public Orientation rotate(int turns) {
+            return ORIENTATIONS[shape.ordinal()][(rotation + turns) & 3];
         }
-        return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,188 @@
+// File: src/SimulationLoop.java
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// Fixed-timestep driver for a GameEngine. Time is a tick counter: on every tick the
+// controller's inputs are applied and then gravity moves the piece one step. In real
+// time mode ticks are paced to the configured length, in turbo mode they run back to
+// back as fast as the CPU allows. Either way the game only depends on the engine's seed
+// and the inputs applied on each tick, which are recorded in an InputLog, so replaying
+// the log against the same seed gives an identical game.
+public class SimulationLoop {
+    // decides which inputs to send on a tick
+    public interface Controller {
+        // adds the inputs to apply before gravity on this tick, may add none
+        void inputs(GameEngine engine, long tick, InputQueue out);
+    }
+
+    // reusable list of inputs for one tick
+    public static final class InputQueue {
+        private MoveGenerator.Input[] inputs = new MoveGenerator.Input[16];
+        private int size = 0;
+
+        public void add(MoveGenerator.Input input) {
+            if (size == inputs.length) {
+                inputs = Arrays.copyOf(inputs, size * 2);
+            }
+            inputs[size++] = input;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public MoveGenerator.Input get(int i) {
+            return inputs[i];
+        }
+
+        private void clear() {
+            size = 0;
+        }
+    }
+
+    private final GameEngine engine;
+    private final Controller controller;
+    private final InputLog log;
+    private final InputQueue queue = new InputQueue();
+    private long tick = 0;
+    private long tickNanos;
+    private boolean turbo = false;
+    private volatile boolean stopped = false;
+
+    // creates a loop for a new game with uniform pieces from seed, ticks last tickMillis in real time mode
+    public SimulationLoop(int width, int height, int level, long seed, Controller controller, long tickMillis) {
+        this(width, height, level, PieceGenerator.Kind.UNIFORM, seed, controller, tickMillis);
+    }
+
+    // creates a loop for a new game with pieces of the given kind from seed
+    public SimulationLoop(int width, int height, int level, PieceGenerator.Kind pieces, long seed,
+            Controller controller, long tickMillis) {
+        this(new GameEngine(width, height, level, pieces.create(seed)), pieces, seed, controller, tickMillis);
+    }
+
+    // creates a loop for an engine whose pieces come from a generator of the given kind seeded with seed
+    public SimulationLoop(GameEngine engine, PieceGenerator.Kind pieces, long seed, Controller controller,
+            long tickMillis) {
+        this.engine = engine;
+        this.controller = controller;
+        this.log = new InputLog(pieces, seed);
+        setTickMillis(tickMillis);
+    }
+
+    // replays a recorded game, the result is the same game the log was recorded from
+    public static SimulationLoop replay(int width, int height, int level, InputLog log) {
+        SimulationLoop loop = new SimulationLoop(width, height, level, log.getPieces(), log.getSeed(), log.replay(),
+                0);
+        loop.setTurbo(true);
+        return loop;
+    }
+
+    // starts the game, the first tick is tick 0
+    public void start() {
+        tick = 0;
+        stopped = false;
+        log.clear();
+        engine.startGame();
+    }
+
+    // runs a single tick, returns false once the game is over
+    public boolean step() {
+        if (engine.isGameOver()) {
+            return false;
+        }
+        queue.clear();
+        controller.inputs(engine, tick, queue);
+        for (int i = 0; i < queue.size(); i++) {
+            MoveGenerator.Input input = queue.get(i);
+            log.add(tick, input);
+            apply(input);
+            if (engine.isGameOver()) {
+                break;
+            }
+        }
+        if (!engine.isGameOver()) {
+            engine.tick(); // gravity, or the spawn after a line clear
+        }
+        tick++;
+        return !engine.isGameOver();
+    }
+
+    // starts a game and runs it until it ends, stop() is called or maxTicks have run (0 for no limit)
+    public void run(long maxTicks) {
+        start();
+        long next = System.nanoTime();
+        while (!stopped && (maxTicks <= 0 || tick < maxTicks)) {
+            if (!step()) {
+                break;
+            }
+            if (!turbo) {
+                // the deadline moves on by a whole tick each time so pacing does not drift
+                next += tickNanos;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else if (wait < -tickNanos * 10) {
+                    next = System.nanoTime(); // far behind, do not try to catch up in a burst
+                }
+            }
+        }
+    }
+
+    // asks a running loop to finish after the current tick, safe to call from any thread
+    public void stop() {
+        stopped = true;
+    }
+
+    // applies a single input to the engine
+    private void apply(MoveGenerator.Input input) {
+        switch (input) {
+            case LEFT:
+                engine.moveLeft();
+                break;
+            case RIGHT:
+                engine.moveRight();
+                break;
+            case ROTATE:
+                engine.rotate();
+                break;
+            case DOWN:
+                engine.moveDown();
+                break;
+            case DROP:
+                engine.drop();
+                break;
+        }
+    }
+
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    // ticks run since the game started
+    public long getTick() {
+        return tick;
+    }
+
+    // inputs applied so far
+    public InputLog getInputLog() {
+        return log;
+    }
+
+    public boolean isTurbo() {
+        return turbo;
+    }
+
+    // turbo runs ticks without waiting, real time paces them to the tick length
+    public void setTurbo(boolean turbo) {
+        this.turbo = turbo;
+    }
+
+    public long getTickMillis() {
+        return tickNanos / 1_000_000L;
+    }
+
+    public void setTickMillis(long tickMillis) {
+        this.tickNanos = Math.max(0, tickMillis) * 1_000_000L;
+    }
+}
@@ -1,36 +1,92 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class TetrisAI {
     // instance of board evaluator
-    private BoardEvaluator evaluator = new BoardEvaluator();
+    private final BoardEvaluator evaluator;
 
-    // find best move for current piece on board
-    public Move findBestMove(TetrisBoard board, Shape piece) {
-        Move bestMove = null;
-        int bestScore = Integer.MIN_VALUE;
+    // how far ahead to search
+    private SearchConfig config;
 
-        // Simulate all rotations and column positions
-        for (int rotation = 0; rotation < 4; rotation++) {
-            Shape rotatedPiece = piece;
-            for (int i = 0; i < rotation; i++) {
-                rotatedPiece = rotatedPiece.rotateRight();
-            }
+    // pool for splitting large searches across threads, null keeps every search on the caller
+    private ForkJoinPool pool;
 
-            // Try placing the piece in each column
-            for (int col = 0; col < board.getBoardWidth(); col++) {
-                // Simulate the drop of the piece at different column positions
-                Shape.Tetrominoes[][] simulatedBoard = simulateDrop(board.getBoard(), rotatedPiece, col);
-                // System.out.println(simulatedBoard);
-                if (simulatedBoard != null) { // Add null check for out-of-bounds
-                    int score = evaluator.evaluateBoard(simulatedBoard);
-                    if (score > bestScore) {
-                        bestScore = score;
-                        bestMove = new Move(col, rotation);
-                    }
-                }
-            }
-        }
+    // cache of finished searches and hidden-piece values, may be shared between AIs, null to disable
+    private TranspositionTable table;
+
+    // search used in expectimax mode
+    private final ExpectimaxSearch expectimax;
+
+    // salt that keeps hidden-piece values apart from whole-search results in the table
+    private static final long EXPECT_KEY = ZobristHash.mix(0xE4BEC7L);
+
+    // score given to a board where the piece cannot be placed at all
+    private static final int TOPPED_OUT = -1_000_000;
+
+    // one scratch board and delta evaluator per thread, reused by every search on that thread
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    // AI with the default lookahead settings
+    public TetrisAI() {
+        this(new SearchConfig());
+    }
+
+    public TetrisAI(SearchConfig config) {
+        this(config, null, new BoardEvaluator());
+    }
+
+    public TetrisAI(SearchConfig config, ForkJoinPool pool) {
+        this(config, pool, new BoardEvaluator());
+    }
+
+    // AI that scores boards with its own evaluator weights
+    public TetrisAI(SearchConfig config, BoardEvaluator evaluator) {
+        this(config, null, evaluator);
+    }
+
+    public TetrisAI(SearchConfig config, ForkJoinPool pool, BoardEvaluator evaluator) {
+        this.config = config;
+        this.pool = pool;
+        this.evaluator = evaluator;
+        this.expectimax = new ExpectimaxSearch(evaluator);
+    }
+
+    public BoardEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public SearchConfig getSearchConfig() {
+        return config;
+    }
+
+    public void setSearchConfig(SearchConfig config) {
+        this.config = config;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return pool;
+    }
+
+    // sets the pool used for parallel search, null to always search serially
+    public void setForkJoinPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return table;
+    }
+
+    // sets the table used to reuse results for board states seen before, null to disable
+    public void setTranspositionTable(TranspositionTable table) {
+        this.table = table;
+    }
+
+    // find best move for current piece on board
+    public Move findBestMove(TetrisBoard board, Shape piece) {
+        Move bestMove = new Move(0, 0);
 
         // if no valid move found randomise
-        if (bestMove == null) {
+        if (!findBestMove(board.getBoard(), piece, board.getNextPiece(), bestMove)) {
             int randomCol = (int) (Math.random() * board.getBoardWidth());
             int randomRot = (int) (Math.random() * 4);
             bestMove = new Move(randomCol, randomRot);
@@ -42,32 +98,15 @@ public class TetrisAI {
 
     // Function Overload for Server Call
     public Move findBestMove(Shape.Tetrominoes[][] board, Shape piece) {
-        Move bestMove = null;
-        int bestScore = Integer.MIN_VALUE;
+        return findBestMove(board, piece, (Shape) null);
+    }
 
-        // Simulate all rotations and column positions
-        for (int rotation = 0; rotation < 4; rotation++) {
-            Shape rotatedPiece = piece;
-            for (int i = 0; i < rotation; i++) {
-                rotatedPiece = rotatedPiece.rotateRight();
-            }
+    // server call that also knows the next piece
+    public Move findBestMove(Shape.Tetrominoes[][] board, Shape piece, Shape nextPiece) {
+        Move bestMove = new Move(0, 0);
 
-            // Try placing the piece in each column
-            for (int col = 0; col < board[0].length; col++) {
-                // Simulate the drop of the piece at different column positions
-                Shape.Tetrominoes[][] simulatedBoard = simulateDrop(board, rotatedPiece, col);
-                // System.out.println(simulatedBoard);
-                if (simulatedBoard != null) { // Add null check for out-of-bounds
-                    int score = evaluator.evaluateBoard(simulatedBoard);
-                    if (score > bestScore) {
-                        bestScore = score;
-                        bestMove = new Move(col, rotation);
-                    }
-                }
-            }
-        }
         // if no best move found randomise
-        if (bestMove == null) {
+        if (!findBestMove(board, piece, nextPiece, bestMove)) {
             int randomCol = (int) (Math.random() * board[0].length);
             int randomRot = (int) (Math.random() * 4);
             bestMove = new Move(randomCol, randomRot);
@@ -77,78 +116,585 @@ public class TetrisAI {
         return bestMove;
     }
 
-    // simulate dropping piece at col position
-    private Shape.Tetrominoes[][] simulateDrop(Shape.Tetrominoes[][] board, Shape piece, int col) {
-        Shape.Tetrominoes[][] simulatedBoard = copyBoard(board);
-        // printBoard(simulatedBoard);
-        int dropRow = getDropRow(simulatedBoard, piece, col);
+    // server call for a snapshot
+    public Move findBestMove(GameState state) {
+        Move bestMove = new Move(0, 0);
 
-        // Check if the piece can be placed within valid bounds
-        if (dropRow >= 0) {
-            placePiece(simulatedBoard, piece, col, dropRow);
-            return simulatedBoard;
+        // if no best move found randomise
+        if (!findBestMove(state, bestMove)) {
+            int randomCol = (int) (Math.random() * state.getWidth());
+            int randomRot = (int) (Math.random() * 4);
+            bestMove = new Move(randomCol, randomRot);
         }
-        return null; // Return null if placement is invalid
+
+        return bestMove;
     }
 
-    // determine row where piece can be placed
-    private int getDropRow(Shape.Tetrominoes[][] board, Shape piece, int col) {
-        int row = 0;
-        while (canPlacePiece(board, piece, col, row)) {
-            row++;
+    // allocation free search, writes the best move into result and returns false if nothing fits
+    public boolean findBestMove(Shape.Tetrominoes[][] cells, Shape piece, Move result) {
+        return findBestMove(cells, piece, null, result);
+    }
+
+    // as above, looking ahead to nextPiece (may be null) as far as the search config allows
+    public boolean findBestMove(Shape.Tetrominoes[][] cells, Shape piece, Shape nextPiece, Move result) {
+        Scratch scratch = SCRATCH.get();
+        BitBoard board = scratch.board(cells[0].length, cells.length);
+        board.load(cells);
+        boolean hasNext = nextPiece != null && nextPiece.getShape() != Shape.Tetrominoes.NoShape;
+        return search(board, piece.getOrientation(), hasNext ? nextPiece.getOrientation() : null, result, scratch);
+    }
+
+    // searches the board, current piece and next piece of a snapshot, the rotation in result
+    // counts right turns from the snapshot's rotation
+    public boolean findBestMove(GameState state, Move result) {
+        Scratch scratch = SCRATCH.get();
+        BitBoard board = scratch.board(state.getWidth(), state.getHeight());
+        board.load(state);
+        Shape.Orientation next = state.getNextPiece() == Shape.Tetrominoes.NoShape ? null
+                : Shape.orientation(state.getNextPiece(), 0);
+        return search(board, Shape.orientation(state.getCurrentPiece(), state.getRotation()), next, result,
+                scratch);
+    }
+
+    // searches a loaded board, nextPiece is null when it is not known
+    private boolean search(BitBoard board, Shape.Orientation piece, Shape.Orientation nextPiece, Move result,
+            Scratch scratch) {
+        boolean hasNext = nextPiece != null;
+        int knownPieces = hasNext ? 2 : 1;
+        boolean isExpectimax = config.getMode() == SearchConfig.Mode.EXPECTIMAX;
+        int plies = isExpectimax ? config.getDepth()
+                : Math.min(config.getDepth(), knownPieces + (config.isExpectHiddenPiece() ? 1 : 0));
+
+        // reuse the result of an earlier search of the same state and settings
+        long key = 0;
+        if (table != null) {
+            key = board.getHash() ^ ZobristHash.pieceKey(piece, 0) ^ searchKey(plies, board);
+            if (plies > 1 && hasNext) {
+                key ^= ZobristHash.pieceKey(nextPiece, 1);
+            }
+            long entry = table.probe(key);
+            if (entry != TranspositionTable.MISS) {
+                result.setColumn(TranspositionTable.column(entry));
+                result.setRotation(TranspositionTable.rotation(entry));
+                return true;
+            }
         }
-        // System.out.println(row-1);
-        return row - 1; // Return the last valid row
+
+        boolean found;
+        scratch.complete = true;
+        if (plies <= 1) {
+            found = searchGreedy(board, piece, result, scratch);
+        } else if (isExpectimax) {
+            found = expectimax.search(board, piece, nextPiece, config, table, searchKey(plies, board), result,
+                    scratch.finished);
+            scratch.complete = scratch.finished[0];
+        } else {
+            Shape.Orientation[] known = scratch.known;
+            known[0] = piece;
+            known[1] = nextPiece;
+            found = beamSearch(board, known, knownPieces, plies, result, scratch);
+        }
+
+        // results cut short by the time budget depend on timing, so only full searches are kept
+        if (table != null && found && scratch.complete) {
+            table.store(key, 0, result.getColumn(), result.getRotation(), plies);
+        }
+        return found;
+    }
+
+    // key for the board size and settings that change a search result, so different AIs and
+    // board sizes can share one table. Cell hashes alone do not tell sizes apart, an empty
+    // board hashes to 0 at every size.
+    private long searchKey(int plies, BitBoard board) {
+        long key = ZobristHash.mix(plies ^ ((long) config.getMode().ordinal() << 8)
+                ^ ((long) board.getWidth() << 16) ^ ((long) board.getHeight() << 32));
+        if (plies > 1) {
+            key = ZobristHash.mix(key ^ config.getBeamWidth());
+            key = ZobristHash.mix(key ^ (config.isExpectHiddenPiece() ? 1 : 0));
+        }
+        for (int weight : evaluator.getWeights()) {
+            key = ZobristHash.mix(key ^ weight);
+        }
+        return key;
     }
 
-    // check if piece can be placed at the position
-    private boolean canPlacePiece(Shape.Tetrominoes[][] board, Shape piece, int col, int row) {
-        for (int i = 0; i < 4; i++) {
-            int x = col + piece.x(i);
-            int y = row + piece.y(i);
+    // one-piece search: tries every rotation and column of the current piece
+    private boolean searchGreedy(BitBoard board, Shape.Orientation piece, Move result, Scratch scratch) {
+        // cache the board features once, each candidate is scored from its delta
+        scratch.delta.reset(board);
+        boolean found = false;
+        int bestScore = Integer.MIN_VALUE;
+
+        // Simulate all rotations and column positions
+        for (int rotation = 0; rotation < 4; rotation++) {
+            BitBoard.Piece mask = piece.rotate(rotation).getPiece();
 
-            // System.out.println(y+" " +x);
-            // Check if x and y are within valid bounds
-            if (x < 0 || x >= board[0].length || y < 0 || y >= board.length) {
+            // Try placing the piece in each column
+            for (int col = 0; col < board.getWidth(); col++) {
+                // Simulate the drop of the piece at different column positions
+                int dropRow = board.dropRow(mask, col);
+                if (dropRow < 0) { // piece does not fit in this column
+                    continue;
+                }
+                scratch.delta.extractFeatures(mask, col, dropRow, scratch.features);
+                int score = evaluator.score(scratch.features);
+                if (score > bestScore) {
+                    bestScore = score;
+                    result.setColumn(col);
+                    result.setRotation(rotation);
+                    found = true;
+                }
+            }
+        }
+        return found;
+    }
+
+    // keeps the best boards after each piece and expands only those with the following piece.
+    // Plies past the known pieces average the best placement over all 7 shapes. If the time
+    // budget runs out, the best board of the last finished ply decides the move.
+    private boolean beamSearch(BitBoard root, Shape.Orientation[] known, int knownPieces, int plies, Move result,
+            Scratch scratch) {
+        long budget = config.getTimeBudgetMillis();
+        long deadline = budget > 0 ? System.nanoTime() + budget * 1_000_000L : Long.MAX_VALUE;
+        int lineWeight = evaluator.getWeight(BoardEvaluator.LINES);
+        Beam beam = scratch.beam(root.getWidth(), root.getHeight(), config.getBeamWidth());
+        beam.reset(root);
+
+        for (int ply = 0; ply < plies; ply++) {
+            if (ply < knownPieces) {
+                // ply 0 always finishes so there is always a move to return
+                boolean finished = expand(beam, known[ply], ply == 0, lineWeight, ply == 0 ? Long.MAX_VALUE : deadline,
+                        scratch);
+                if (!finished) {
+                    scratch.complete = false; // out of time
+                    break;
+                }
+                if (beam.nextSize == 0) {
+                    break; // the piece tops out on every kept board
+                }
+                beam.swap();
+            } else {
+                if (!expectHiddenPiece(beam, lineWeight, deadline, scratch)) {
+                    scratch.complete = false;
+                    break;
+                }
+            }
+            if (ply < plies - 1 && System.nanoTime() > deadline) {
+                scratch.complete = false;
+                break;
+            }
+        }
+
+        if (beam.size == 0 || beam.nodes[0].isRoot) {
+            return false; // nothing fit at ply 0
+        }
+        Node best = beam.nodes[beam.bestIndex];
+        result.setColumn(best.rootColumn);
+        result.setRotation(best.rootRotation);
+        return true;
+    }
+
+    // places one piece on every board in the beam, keeping the best boards for the next ply
+    private boolean expand(Beam beam, Shape.Orientation orientation, boolean fromRoot, int lineWeight, long deadline,
+            Scratch scratch) {
+        if (useParallel(beam.size * 4 * beam.nodes[0].board.getWidth())) {
+            return expandParallel(beam, orientation, fromRoot, lineWeight, deadline, scratch);
+        }
+        beam.nextSize = 0;
+        for (int n = 0; n < beam.size; n++) {
+            if (System.nanoTime() > deadline) {
                 return false;
             }
-            if (board[y][x] != Shape.Tetrominoes.NoShape) {
+            Node parent = beam.nodes[n];
+            scratch.delta.reset(parent.board);
+            for (int rotation = 0; rotation < 4; rotation++) {
+                BitBoard.Piece mask = orientation.rotate(rotation).getPiece();
+                for (int col = 0; col < parent.board.getWidth(); col++) {
+                    int dropRow = parent.board.dropRow(mask, col);
+                    if (dropRow < 0) {
+                        continue;
+                    }
+                    scratch.delta.extractFeatures(mask, col, dropRow, scratch.features);
+                    int score = evaluator.score(scratch.features) + lineWeight * parent.linesCleared;
+                    beam.offer(score, parent, mask, col, dropRow, fromRoot ? rotation : parent.rootRotation,
+                            fromRoot ? col : parent.rootColumn);
+                }
+            }
+        }
+        return true;
+    }
+
+    // parallel version of expand. Each (board, rotation) pair is scored on a worker into its
+    // own short list, then the lists are merged in the serial visiting order so ties resolve
+    // exactly as they do in the serial search.
+    private boolean expandParallel(Beam beam, Shape.Orientation orientation, boolean fromRoot, int lineWeight,
+            long deadline, Scratch scratch) {
+        int units = beam.size * 4;
+        Candidates[] results = scratch.candidates(units, beam.width());
+        pool.invoke(new RangeTask((lo, hi) -> {
+            Scratch local = SCRATCH.get();
+            Node lastParent = null;
+            for (int u = lo; u < hi; u++) {
+                Candidates out = results[u];
+                out.size = 0;
+                out.complete = System.nanoTime() <= deadline;
+                if (!out.complete) {
+                    continue;
+                }
+                Node parent = beam.nodes[u / 4];
+                int rotation = u % 4;
+                if (parent != lastParent) {
+                    local.delta.reset(parent.board);
+                    lastParent = parent;
+                }
+                BitBoard.Piece mask = orientation.rotate(rotation).getPiece();
+                for (int col = 0; col < parent.board.getWidth(); col++) {
+                    int dropRow = parent.board.dropRow(mask, col);
+                    if (dropRow < 0) {
+                        continue;
+                    }
+                    local.delta.extractFeatures(mask, col, dropRow, local.features);
+                    int score = evaluator.score(local.features) + lineWeight * parent.linesCleared;
+                    out.offer(score, u / 4, mask, col, dropRow, fromRoot ? rotation : parent.rootRotation,
+                            fromRoot ? col : parent.rootColumn);
+                }
+            }
+        }, 0, units));
+
+        beam.nextSize = 0;
+        for (int u = 0; u < units; u++) {
+            Candidates list = results[u];
+            if (!list.complete) {
                 return false;
             }
+            for (int i = 0; i < list.size; i++) {
+                beam.offer(list.scores[i], beam.nodes[list.parents[i]], list.masks[i], list.columns[i],
+                        list.rows[i], list.rootRotations[i], list.rootColumns[i]);
+            }
         }
-        // System.out.println("Can True");
         return true;
     }
 
-    // place piece on board at specified location
-    private void placePiece(Shape.Tetrominoes[][] board, Shape piece, int col, int row) {
-        for (int i = 0; i < 4; i++) {
-            int x = col + piece.x(i);
-            int y = row + piece.y(i);
+    // scores each board in the beam by its best placement averaged over all 7 shapes
+    private boolean expectHiddenPiece(Beam beam, int lineWeight, long deadline, Scratch scratch) {
+        long[] values = scratch.values(beam.size);
+        if (useParallel(beam.size * 7 * 4 * beam.nodes[0].board.getWidth())) {
+            boolean[] timedOut = new boolean[1];
+            pool.invoke(new RangeTask((lo, hi) -> {
+                Scratch local = SCRATCH.get();
+                for (int n = lo; n < hi; n++) {
+                    if (System.nanoTime() > deadline) {
+                        timedOut[0] = true;
+                        return;
+                    }
+                    values[n] = expectedValue(beam.nodes[n], lineWeight, local);
+                }
+            }, 0, beam.size));
+            if (timedOut[0]) {
+                return false;
+            }
+        } else {
+            for (int n = 0; n < beam.size; n++) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                values[n] = expectedValue(beam.nodes[n], lineWeight, scratch);
+            }
+        }
+
+        // first board wins ties, as in the serial search
+        int bestIndex = 0;
+        for (int n = 1; n < beam.size; n++) {
+            if (values[n] > values[bestIndex]) {
+                bestIndex = n;
+            }
+        }
+        beam.bestIndex = bestIndex;
+        return true;
+    }
+
+    // best placement score on a board, averaged over all 7 shapes
+    private long expectedValue(Node node, int lineWeight, Scratch scratch) {
+        long bonus = (long) lineWeight * node.linesCleared;
+        long key = 0;
+        if (table != null) {
+            key = node.board.getHash() ^ EXPECT_KEY ^ searchKey(1, node.board);
+            long entry = table.probe(key);
+            if (entry != TranspositionTable.MISS) {
+                return TranspositionTable.score(entry) + bonus;
+            }
+        }
+
+        Shape.Tetrominoes[] shapes = Shape.Tetrominoes.values();
+        scratch.delta.reset(node.board);
+        long total = 0;
+        for (int s = 1; s < shapes.length; s++) {
+            int best = TOPPED_OUT;
+            for (int rotation = 0; rotation < 4; rotation++) {
+                BitBoard.Piece mask = Shape.orientation(shapes[s], rotation).getPiece();
+                for (int col = 0; col < node.board.getWidth(); col++) {
+                    int dropRow = node.board.dropRow(mask, col);
+                    if (dropRow < 0) {
+                        continue;
+                    }
+                    scratch.delta.extractFeatures(mask, col, dropRow, scratch.features);
+                    best = Math.max(best, evaluator.score(scratch.features));
+                }
+            }
+            total += best;
+        }
+        int average = (int) Math.floorDiv(total, shapes.length - 1);
+        if (table != null) {
+            table.store(key, average, 0, 0, 1);
+        }
+        return average + bonus;
+    }
+
+    // check if a ply with this many candidates is worth splitting across the pool
+    private boolean useParallel(int candidates) {
+        return pool != null && pool.getParallelism() > 1 && candidates >= config.getParallelThreshold();
+    }
+
+    // a board kept in the beam and the first move that led to it
+    private static final class Node {
+        private final BitBoard board;
+        private int score;
+        private int linesCleared;  // lines cleared on the way to this board
+        private int rootRotation;
+        private int rootColumn;
+        private boolean isRoot;  // the starting board, before any piece is placed
+
+        // placement that produced this board, used to skip duplicate boards
+        private Node parent;
+        private BitBoard.Piece placed;
+        private int placedLeft;
+        private int placedTop;
+
+        private Node(int width, int height) {
+            board = new BitBoard(width, height);
+        }
+    }
+
+    // two reusable node arrays, the current ply and the one being built
+    private static final class Beam {
+        private Node[] nodes;
+        private Node[] next;
+        private int size;
+        private int nextSize;
+        private int bestIndex;
+
+        private Beam(int width, int height, int beamWidth) {
+            nodes = new Node[beamWidth];
+            next = new Node[beamWidth];
+            for (int i = 0; i < beamWidth; i++) {
+                nodes[i] = new Node(width, height);
+                next[i] = new Node(width, height);
+            }
+        }
+
+        private int width() {
+            return nodes.length;
+        }
+
+        // starts a search with the root board as the only node
+        private void reset(BitBoard root) {
+            Node node = nodes[0];
+            node.board.copyFrom(root);
+            node.score = 0;
+            node.linesCleared = 0;
+            node.parent = null;
+            node.isRoot = true;
+            size = 1;
+            nextSize = 0;
+            bestIndex = 0;
+        }
 
-            // Check again to ensure that x and y are valid before placing
-            if (x >= 0 && x < board[0].length && y >= 0 && y < board.length) {
-                board[y][x] = piece.getShape();
+        // adds a candidate to the next ply if it is among the best, ties keep the earlier one
+        private void offer(int score, Node parent, BitBoard.Piece mask, int col, int row, int rootRotation,
+                int rootColumn) {
+            int capacity = next.length;
+            if (nextSize == capacity && score <= next[capacity - 1].score) {
+                return;
+            }
+            int left = col + mask.getMinX();
+            int top = row + mask.getMinY();
+            int insert = nextSize;
+            for (int i = 0; i < nextSize; i++) {
+                Node other = next[i];
+                if (other.score == score && other.parent == parent && other.placedLeft == left
+                        && other.placedTop == top && mask.sameCells(other.placed)) {
+                    return; // same board reached with another rotation
+                }
+                if (insert == nextSize && score > other.score) {
+                    insert = i;
+                }
+            }
+            // reuse the node that falls off the end
+            Node node = next[nextSize == capacity ? capacity - 1 : nextSize];
+            for (int i = Math.min(nextSize, capacity - 1); i > insert; i--) {
+                next[i] = next[i - 1];
             }
+            next[insert] = node;
+            if (nextSize < capacity) {
+                nextSize++;
+            }
+
+            node.board.copyFrom(parent.board);
+            node.board.place(mask, col, row);
+            node.linesCleared = parent.linesCleared + node.board.clearFullLines();
+            node.score = score;
+            node.rootRotation = rootRotation;
+            node.rootColumn = rootColumn;
+            node.isRoot = false;
+            node.parent = parent;
+            node.placed = mask;
+            node.placedLeft = left;
+            node.placedTop = top;
+        }
+
+        // makes the ply just built the current one, best board first
+        private void swap() {
+            Node[] swap = nodes;
+            nodes = next;
+            next = swap;
+            size = nextSize;
+            nextSize = 0;
+            bestIndex = 0;
         }
     }
 
-    // copy board
-    private Shape.Tetrominoes[][] copyBoard(Shape.Tetrominoes[][] board) {
-        Shape.Tetrominoes[][] newBoard = new Shape.Tetrominoes[board.length][board[0].length];
-        for (int y = 0; y < board.length; y++) {
-            System.arraycopy(board[y], 0, newBoard[y], 0, board[0].length);
+    // best candidates from one (board, rotation) pair of a parallel ply, kept in beam order
+    private static final class Candidates {
+        private final int[] scores;
+        private final int[] parents;
+        private final BitBoard.Piece[] masks;
+        private final int[] columns;
+        private final int[] rows;
+        private final int[] rootRotations;
+        private final int[] rootColumns;
+        private int size;
+        private boolean complete;
+
+        private Candidates(int capacity) {
+            scores = new int[capacity];
+            parents = new int[capacity];
+            masks = new BitBoard.Piece[capacity];
+            columns = new int[capacity];
+            rows = new int[capacity];
+            rootRotations = new int[capacity];
+            rootColumns = new int[capacity];
+        }
+
+        // keeps the candidate if it is among the best, ties keep the earlier one
+        private void offer(int score, int parent, BitBoard.Piece mask, int col, int row, int rootRotation,
+                int rootColumn) {
+            int capacity = scores.length;
+            if (size == capacity && score <= scores[capacity - 1]) {
+                return;
+            }
+            int insert = size;
+            while (insert > 0 && score > scores[insert - 1]) {
+                insert--;
+            }
+            int end = Math.min(size, capacity - 1);
+            for (int i = end; i > insert; i--) {
+                scores[i] = scores[i - 1];
+                parents[i] = parents[i - 1];
+                masks[i] = masks[i - 1];
+                columns[i] = columns[i - 1];
+                rows[i] = rows[i - 1];
+                rootRotations[i] = rootRotations[i - 1];
+                rootColumns[i] = rootColumns[i - 1];
+            }
+            scores[insert] = score;
+            parents[insert] = parent;
+            masks[insert] = mask;
+            columns[insert] = col;
+            rows[insert] = row;
+            rootRotations[insert] = rootRotation;
+            rootColumns[insert] = rootColumn;
+            if (size < capacity) {
+                size++;
+            }
+        }
+    }
+
+    // work over an index range, run on a pool worker
+    private interface RangeBody {
+        void run(int lo, int hi);
+    }
+
+    // splits an index range in halves until each task has a single index
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeBody body;
+        private final int lo;
+        private final int hi;
+
+        private RangeTask(RangeBody body, int lo, int hi) {
+            this.body = body;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= 1) {
+                body.run(lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new RangeTask(body, lo, mid), new RangeTask(body, mid, hi));
         }
-        return newBoard;
     }
 
-    //print board for debugging
-    private void printBoard(Shape.Tetrominoes[][] board) {
-        for (int y = 0; y < board.length; y++) {
-            for (int x = 0; x < board[y].length; x++) {
-                System.out.print(board[y][x] == Shape.Tetrominoes.NoShape ? "." : "#");
+    // per-thread search buffers
+    private static final class Scratch {
+        private BitBoard board;
+        private Beam beam;
+        private final IncrementalEvaluator delta = new IncrementalEvaluator();
+        private final int[] features = new int[BoardEvaluator.FEATURE_COUNT];
+        private final Shape.Orientation[] known = new Shape.Orientation[2];
+        private boolean complete; // false when the last search ran out of time
+        private final boolean[] finished = new boolean[1];
+        private Candidates[] candidates = new Candidates[0];
+        private long[] values = new long[0];
+
+        // returns the scratch board, only reallocated when the board size changes
+        private BitBoard board(int width, int height) {
+            if (board == null || board.getWidth() != width || board.getHeight() != height) {
+                board = new BitBoard(width, height);
+            }
+            return board;
+        }
+
+        // returns the beam buffers, only reallocated when the board size or beam width changes
+        private Beam beam(int width, int height, int beamWidth) {
+            if (beam == null || beam.width() != beamWidth || beam.nodes[0].board.getWidth() != width
+                    || beam.nodes[0].board.getHeight() != height) {
+                beam = new Beam(width, height, beamWidth);
+            }
+            return beam;
+        }
+
+        // per-unit candidate lists for a parallel ply, reallocated when the beam grows
+        private Candidates[] candidates(int units, int beamWidth) {
+            if (candidates.length < units || candidates[0].scores.length != beamWidth) {
+                candidates = new Candidates[units];
+                for (int i = 0; i < units; i++) {
+                    candidates[i] = new Candidates(beamWidth);
+                }
+            }
+            return candidates;
+        }
+
+        // per-board values for an expectation ply
+        private long[] values(int size) {
+            if (values.length < size) {
+                values = new long[size];
             }
-            System.out.println();
+            return values;
         }
     }
 }
@@ -2,38 +2,50 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-public class TetrisBoard extends JPanel implements ActionListener {
+// Swing view and controller for one game. The rules live in GameEngine, this panel
+// drives it from a timer and the keyboard and draws its board. Painting only reads the
+// engine's published GameState, so a frame is always whole whichever thread runs the game.
+public class TetrisBoard extends JPanel implements ActionListener, GameEngine.Listener {
     // Game board dimensions and variables
     private int BOARD_WIDTH;
     private int BOARD_HEIGHT;
     private int INITIAL_DELAY;
     public Timer timer;
-    private boolean isFallingFinished = false;
     private int globalRotationValue = 0;
-    private boolean isStarted = false;
     private boolean isPaused = false;
-    private int numLinesRemoved = 0;
-    private int score = 0;
-    private int curX = 0;
-    private int curY = 0;
-    private Shape curPiece;
-    private Shape.Tetrominoes[][] board;
+    private final GameEngine engine; // game rules and state
     private TetrisGame parentFrame;
-    private int gameLevel;
+    private int gameLevel; // initial level
     private boolean musicOn;
     private boolean soundEffectOn;
     private boolean aiPlay;
     private boolean extendMode;
     private boolean externalMode;
     private List<TetrisGame.HighScore> highScores;
-    private boolean isGameOver = false;
 
     private AudioPlr audioPlayer; // Reference to the audio player for sound effects
     private TetrisAI tetrisAI; // Reference to AI
+    private final MoveGenerator moveGenerator = new MoveGenerator(); // input paths for AI moves
+    private long plannedPiece = -1; // piece number the cached AI plan belongs to
+    private Move plannedMove; // AI or external move for that piece, null if none was found
+    private Shape.Orientation plannedTarget; // orientation the move ends in, its rotation is relative to the spawn
+    private final ArrayDeque<MoveGenerator.Input> plannedInputs = new ArrayDeque<>(); // inputs still to send
     private TetrisClient externalClient; // reference to external
 
+    // search cache shared by both boards in extend mode
+    private static final TranspositionTable AI_TABLE = new TranspositionTable(1 << 16);
+    // threads that split the wide plies of a search, shared by both boards like the table
+    private static final ForkJoinPool AI_POOL = ForkJoinPool.commonPool();
+
+    // colours for tetrimino pieces
+    private static final Color[] SQUARE_COLORS = { new Color(0, 0, 0), new Color(204, 102, 102),
+            new Color(102, 204, 102), new Color(102, 102, 204), new Color(204, 204, 102), new Color(204, 102, 204),
+            new Color(102, 204, 204), new Color(218, 170, 0) };
+
     // UI Elements for the game status
     private JLabel playerTypeLabel;
     private JLabel initialLevelLabel;
@@ -58,14 +70,15 @@ public class TetrisBoard extends JPanel implements ActionListener {
         this.INITIAL_DELAY = 400 - (level - 1) * 40;
         this.highScores = parentFrame.getHighScores();
         this.audioPlayer = parentFrame.getAudioPlayer(); // Reference to audio player
-        this.tetrisAI = new TetrisAI(); // Initialize AI
+        this.tetrisAI = new TetrisAI(parentFrame.getAISearchConfig(), AI_POOL, parentFrame.getAIEvaluator()); // Initialize AI
+        this.tetrisAI.setTranspositionTable(AI_TABLE);
 
         setFocusable(true);
         requestFocusInWindow();
-        curPiece = new Shape();
         timer = new Timer(INITIAL_DELAY, e -> actionPerformed(e));
-        board = new Shape.Tetrominoes[BOARD_HEIGHT][BOARD_WIDTH];
-        clearBoard();
+        engine = new GameEngine(BOARD_WIDTH, BOARD_HEIGHT, level);
+        engine.setListener(this);
+        engine.setPublishing(true);
 
         // Initialize game status panel
         initGameStatusPanel();
@@ -108,11 +121,11 @@ public class TetrisBoard extends JPanel implements ActionListener {
         gbc.gridx = 2;
         statusPanel.add(currentLevelLabel, gbc);
 
-        currentScoreLabel = createStatusLabel("Score: " + score, statusFont);
+        currentScoreLabel = createStatusLabel("Score: " + engine.getScore(), statusFont);
         gbc.gridx = 3;
         statusPanel.add(currentScoreLabel, gbc);
 
-        linesErasedLabel = createStatusLabel("Lines Erased: " + numLinesRemoved, statusFont);
+        linesErasedLabel = createStatusLabel("Lines Erased: " + engine.getLinesRemoved(), statusFont);
         gbc.gridx = 4;
         statusPanel.add(linesErasedLabel, gbc);
 
@@ -132,15 +145,28 @@ public class TetrisBoard extends JPanel implements ActionListener {
 
     // pause game
     public void pauseGame() {
-        if (!isStarted)
+        if (!engine.isStarted())
             return;
         isPaused = true;
         timer.stop();
     }
 
+    // stops the game when the board is discarded, closing its connection to the external player
+    public void stopGame() {
+        timer.stop();
+        closeExternalClient();
+    }
+
+    private void closeExternalClient() {
+        if (externalClient != null) {
+            externalClient.close();
+            externalClient = null;
+        }
+    }
+
     // resume game
     public void resumeGame() {
-        if (!isStarted || !isPaused)
+        if (!engine.isStarted() || !isPaused)
             return;
         isPaused = false;
         timer.start();
@@ -148,7 +174,7 @@ public class TetrisBoard extends JPanel implements ActionListener {
 
     // get score
     public int getScore() {
-        return score;
+        return engine.getScore();
     }
 
     // method to update the game settings
@@ -162,7 +188,7 @@ public class TetrisBoard extends JPanel implements ActionListener {
         this.aiPlay = ai;
         this.extendMode = extend;
         this.INITIAL_DELAY = 400 - (level - 1) * 40;
-        clearBoard();
+        engine.updateSettings(BOARD_WIDTH, BOARD_HEIGHT, level);
     }
 
     // check if game is paused
@@ -172,17 +198,17 @@ public class TetrisBoard extends JPanel implements ActionListener {
 
     // check if game is started
     public boolean isStarted() {
-        return this.isStarted;
+        return engine.isStarted();
     }
 
     // check if game is over
     public boolean isGameOver() {
-        return isGameOver;
+        return engine.isGameOver();
     }
 
     // toggle pause and resume state
     public void pause() {
-        if (!isStarted)
+        if (!engine.isStarted())
             return;
         isPaused = !isPaused;
         if (isPaused) {
@@ -201,13 +227,8 @@ public class TetrisBoard extends JPanel implements ActionListener {
         }
         if (isPaused)
             return; // Ignore actions if paused
-        // generates new piece when one has fallen
-        if (isFallingFinished) {
-            isFallingFinished = false;
-            newPiece();
-        } else {
-            oneLineDown();
-        }
+        // generates new piece when one has fallen, otherwise moves it down
+        engine.tick();
     }
 
     // method to calculate square size
@@ -215,216 +236,98 @@ public class TetrisBoard extends JPanel implements ActionListener {
         return Math.min((int) getSize().getWidth() / BOARD_WIDTH, (int) getSize().getHeight() / BOARD_HEIGHT);
     }
 
-    // returns shape at x and y position on board
-    private Shape.Tetrominoes shapeAt(int x, int y) {
-        return board[y][x];
-    }
-
-    // Private helper method to clear the game board
-    private void clearBoard() {
-        for (int i = 0; i < BOARD_HEIGHT; i++) {
-            for (int j = 0; j < BOARD_WIDTH; j++) {
-                board[i][j] = Shape.Tetrominoes.NoShape;
-            }
-        }
-    }
-
-    // drops current piece to bottom of board
-    private void dropDown() {
-        int newY = curY;
-        while (newY > 0) {
-            if (!tryMove(curPiece, curX, newY - 1)) {
-                break;
-            }
-            newY--;
-        }
-        pieceDropped(); // handles the peice when reaches bottom
-    }
-
-    // moves the current piece down one line
-    private void oneLineDown() {
-        if (!tryMove(curPiece, curX, curY - 1)) {
-            pieceDropped();
-        }
-    }
-
     // initialise new game
     public void startGame() {
-        isStarted = true;
         isPaused = false;
-        isGameOver = false;
-        numLinesRemoved = 0;
-        score = 0;
-        clearBoard();
-        newPiece();
+        plannedPiece = -1; // piece numbers start again with the new game
+        // if external mode enabled sets up external client, before the first piece spawns and asks it for a move
+        if (parentFrame.getPlayerOneType().equals("External") || parentFrame.getPlayerTwoType().equals("External")) {
+            if (externalClient == null) {
+                externalClient = new TetrisClient(); // keeps one connection for the life of the board
+            }
+        }
+        engine.startGame(); // the first piece spawns and the AI or external player plans it
         timer.start();
 
         setFocusable(true);
         requestFocusInWindow();
         updateScore();
-
-        // if AI play enabled, make the AI move
-        if (aiPlay) {
-            aiMakeMove();
-        }
-        // if external mode enabled sets up external client
-        if (parentFrame.getPlayerOneType().equals("External") || parentFrame.getPlayerTwoType().equals("External")) {
-            externalClient = new TetrisClient();
-            aiMakeMove();
-        }
     }
 
-    // handles logic when piece is dropped
-    private void pieceDropped() {
-        for (int i = 0; i < 4; i++) {
-            int x = curX + curPiece.x(i);
-            int y = curY - curPiece.y(i);
-            board[y][x] = curPiece.getShape();
-        }
-
-        removeFullLines();
-
-        // if piece is finished falling creates new piece
-        if (!isFallingFinished) {
-            newPiece();
-            if (aiPlay || parentFrame.getPlayerOneType().equals("External")
-                    || parentFrame.getPlayerTwoType().equals("External")) {
-                aiMakeMove();
-            }
-        }
+    @Override
+    public void boardChanged() {
+        repaint();
     }
 
-    // generates random piece to top of board
-    private void newPiece() {
-        curPiece.setRandomShape();
-        curX = BOARD_WIDTH / 2 + 1;
-        curY = BOARD_HEIGHT - 1 + curPiece.minY();
-
-        // checks if the new piece can be placed if not game ends
-        if (!tryMove(curPiece, curX, curY) && !isGameOver) {
-            curPiece.setShape(Shape.Tetrominoes.NoShape);
-            timer.stop();
-            isStarted = false;
-            isGameOver = true;
-            audioPlayer.playSoundEffect("game-finish"); // Play game over sound effect
-            // show game over dialog depending on mode
-            if (!parentFrame.isExtendMode()) {
-                showGameOverDialog();
-            } else {
-                parentFrame.showGameOverDialog(extendMode);
-            }
-        }
+    @Override
+    public void pieceMoved() {
+        audioPlayer.playSoundEffect("move-turn"); // Play move sound effect
     }
 
-    // tries to move piece to new position
-    private boolean tryMove(Shape newPiece, int newX, int newY) {
-        for (int i = 0; i < 4; i++) {
-            int x = newX + newPiece.x(i);
-            int y = newY - newPiece.y(i);
-            // if new position is out of bounds return false
-            if (x < 0 || x >= BOARD_WIDTH || y < 0 || y >= BOARD_HEIGHT) {
-                return false;
-            }
-            if (shapeAt(x, y) != Shape.Tetrominoes.NoShape) {
-                return false;
-            }
-        }
-        curPiece = newPiece;
-        curX = newX;
-        curY = newY;
-        repaint();
-        return true;
+    @Override
+    public void lineRemoved() {
+        audioPlayer.playSoundEffect("erase-line"); // Play line erase sound effect
     }
 
-    // Play sound when a line is erased
-    private void removeFullLines() {
-        int numFullLines = 0; // initialise counter for number of full lines
-
-        // iterate from the bottom of board to top
-        for (int i = BOARD_HEIGHT - 1; i >= 0; i--) {
-            boolean lineIsFull = true;
-            // check col in row
-            for (int j = 0; j < BOARD_WIDTH; j++) {
-                // if cell in line is empty, line is not full
-                if (shapeAt(j, i) == Shape.Tetrominoes.NoShape) {
-                    lineIsFull = false;
-                    break;
-                }
-            }
+    @Override
+    public void linesCleared(int lines) {
+        updateScore();
+        repaint();
 
-            // removes full line and shift down
-            if (lineIsFull) {
-                numFullLines++;
-                for (int k = i; k < BOARD_HEIGHT - 1; k++) {
-                    for (int j = 0; j < BOARD_WIDTH; j++) {
-                        board[k][j] = board[k + 1][j];
-                    }
-                }
-                audioPlayer.playSoundEffect("erase-line"); // Play line erase sound effect
-            }
-        }
+        // Update the game status display
+        updateStatusDisplay();
+    }
 
-        // if any lines removed update score and game
-        if (numFullLines > 0) {
-            numLinesRemoved += numFullLines;
-            score += calculateScore(numFullLines); // Calculate score based on number of rows removed
-            updateScore();
-            updateLevel(); // Check for level progression
-            isFallingFinished = true;
-            curPiece.setShape(Shape.Tetrominoes.NoShape);
-            repaint();
-
-            // Update the game status display
-            updateStatusDisplay();
-        }
+    // Play sound when leveling up
+    @Override
+    public void levelUp(int level) {
+        audioPlayer.playSoundEffect("level-up"); // Play level up sound effect
     }
 
-    // Scoring logic based on the number of rows removed at once
-    private int calculateScore(int linesRemoved) {
-        switch (linesRemoved) {
-            case 1:
-                return 100;
-            case 2:
-                return 300;
-            case 3:
-                return 600;
-            case 4:
-                return 1000;
-            default:
-                return 0;
+    // lets the AI or external player plan the piece that just spawned, the game timer plays it
+    @Override
+    public void pieceSpawned() {
+        if (aiPlay || parentFrame.getPlayerOneType().equals("External")
+                || parentFrame.getPlayerTwoType().equals("External")) {
+            planMove();
         }
     }
 
-    // Method to update the player's level based on the number of lines erased
-    private void updateLevel() {
-        int newLevel = numLinesRemoved / 10 + 1; // Every 10 rows, increase the level
-        if (newLevel > gameLevel) {
-            gameLevel = newLevel;
-            levelUp(); // Trigger level-up sound or effect
+    // the new piece did not fit
+    @Override
+    public void gameOver() {
+        timer.stop();
+        closeExternalClient(); // a new game opens a new connection
+        audioPlayer.playSoundEffect("game-finish"); // Play game over sound effect
+        // show game over dialog depending on mode
+        if (!parentFrame.isExtendMode()) {
+            showGameOverDialog();
+        } else {
+            parentFrame.showGameOverDialog(extendMode);
         }
     }
 
     // method to update game with current level, score and lines erased
     private void updateStatusDisplay() {
-        currentLevelLabel.setText("Current Level: " + gameLevel);
-        currentScoreLabel.setText("Score: " + score);
-        linesErasedLabel.setText("Lines Erased: " + numLinesRemoved);
+        currentLevelLabel.setText("Current Level: " + engine.getLevel());
+        currentScoreLabel.setText("Score: " + engine.getScore());
+        linesErasedLabel.setText("Lines Erased: " + engine.getLinesRemoved());
     }
 
     // refresh score display
     private void updateScore() {
-        currentScoreLabel.setText("Score: " + score);
+        currentScoreLabel.setText("Score: " + engine.getScore());
     }
 
     // show game over dialog and handle input for restarting, viewing score
     private void showGameOverDialog() {
         audioPlayer.playSoundEffect("game-finish"); // Play game finish sound effect
-        String playerName = JOptionPane.showInputDialog(this, "Game Over\nYour Score: " + score + "\nEnter your name:",
+        String playerName = JOptionPane.showInputDialog(this, "Game Over\nYour Score: " + engine.getScore() + "\nEnter your name:",
                 "Enter Name", JOptionPane.PLAIN_MESSAGE);
 
         // add high score
         if (playerName != null && !playerName.trim().isEmpty()) {
-            parentFrame.addHighScore(playerName, score);
+            parentFrame.addHighScore(playerName, engine.getScore());
         }
 
         // display options for restarting, view high score or menu
@@ -449,24 +352,10 @@ public class TetrisBoard extends JPanel implements ActionListener {
         Dimension size = getSize();
         int boardTop = (int) size.getHeight() - BOARD_HEIGHT * squareSize();
 
-        // Draw the entire board content
-        for (int i = 0; i < BOARD_HEIGHT; i++) {
-            for (int j = 0; j < BOARD_WIDTH; j++) {
-                Shape.Tetrominoes shape = shapeAt(j, BOARD_HEIGHT - i - 1);
-                if (shape != Shape.Tetrominoes.NoShape) {
-                    drawSquare(g, j * squareSize(), boardTop + i * squareSize(), shape);
-                }
-            }
-        }
-
-        // Draw the falling piece
-        if (curPiece.getShape() != Shape.Tetrominoes.NoShape) {
-            for (int i = 0; i < 4; i++) {
-                int x = curX + curPiece.x(i);
-                int y = curY - curPiece.y(i);
-                drawSquare(g, x * squareSize(), boardTop + (BOARD_HEIGHT - y - 1) * squareSize(),
-                        curPiece.getShape());
-            }
+        // one published frame for the whole paint, the game may move on while we draw
+        GameState frame = engine.getPublished();
+        if (frame != null && frame.getWidth() == BOARD_WIDTH && frame.getHeight() == BOARD_HEIGHT) {
+            drawFrame(g, frame, boardTop);
         }
 
         // Draw the board outline for single-player or each board in extended mode
@@ -502,14 +391,42 @@ public class TetrisBoard extends JPanel implements ActionListener {
         }
     }
 
+    // draws the board, ghost piece and falling piece of a snapshot
+    private void drawFrame(Graphics g, GameState frame, int boardTop) {
+        // Draw the entire board content
+        for (int i = 0; i < BOARD_HEIGHT; i++) {
+            for (int j = 0; j < BOARD_WIDTH; j++) {
+                Shape.Tetrominoes shape = frame.shapeAt(j, BOARD_HEIGHT - i - 1);
+                if (shape != Shape.Tetrominoes.NoShape) {
+                    drawSquare(g, j * squareSize(), boardTop + i * squareSize(), shape);
+                }
+            }
+        }
+
+        // Draw the falling piece
+        Shape.Tetrominoes shape = frame.getCurrentPiece();
+        Shape.Orientation curPiece = frame.getOrientation();
+        int curX = frame.getX();
+        int curY = frame.getY();
+        if (shape != Shape.Tetrominoes.NoShape) {
+            // ghost piece where the piece would land, drawn first so the piece covers it when they overlap
+            int ghostY = frame.getGhostY();
+            for (int i = 0; i < 4; i++) {
+                int x = curX + curPiece.x(i);
+                int y = ghostY - curPiece.y(i);
+                drawGhostSquare(g, x * squareSize(), boardTop + (BOARD_HEIGHT - y - 1) * squareSize(), shape);
+            }
+            for (int i = 0; i < 4; i++) {
+                int x = curX + curPiece.x(i);
+                int y = curY - curPiece.y(i);
+                drawSquare(g, x * squareSize(), boardTop + (BOARD_HEIGHT - y - 1) * squareSize(), shape);
+            }
+        }
+    }
+
     // method to draw square for pieces
     private void drawSquare(Graphics g, int x, int y, Shape.Tetrominoes shape) {
-        // colours for tetrimino pieces
-        Color colors[] = { new Color(0, 0, 0), new Color(204, 102, 102), new Color(102, 204, 102),
-                new Color(102, 102, 204), new Color(204, 204, 102), new Color(204, 102, 204),
-                new Color(102, 204, 204), new Color(218, 170, 0) };
-
-        Color color = colors[shape.ordinal()];
+        Color color = SQUARE_COLORS[shape.ordinal()];
 
         g.setColor(color);
         g.fillRect(x + 1, y + 1, squareSize() - 2, squareSize() - 2);
@@ -527,47 +444,47 @@ public class TetrisBoard extends JPanel implements ActionListener {
         g.drawLine(x + squareSize() - 1, y + squareSize() - 1, x + squareSize() - 1, y + 1);
     }
 
+    // method to draw the outline of a ghost piece square
+    private void drawGhostSquare(Graphics g, int x, int y, Shape.Tetrominoes shape) {
+        g.setColor(SQUARE_COLORS[shape.ordinal()].darker());
+        g.drawRect(x + 1, y + 1, squareSize() - 3, squareSize() - 3);
+    }
+
     // move current piece down by one line if not paused
     public void moveDown() {
         if (!isPaused) {
-            oneLineDown();
+            engine.moveDown();
         }
     }
 
     // drop piece to bottom if not paused
     public void drop() {
         if (!isPaused) {
-            dropDown();
+            engine.drop();
         }
     }
 
-    // Play sound when the piece is moved
+    // move piece left if not paused, the engine reports the move for its sound
     public void moveLeft() {
-        if (!isPaused && tryMove(curPiece, curX - 1, curY)) {
-            audioPlayer.playSoundEffect("move-turn"); // Play move sound effect
+        if (!isPaused) {
+            engine.moveLeft();
         }
     }
 
     // move piece right if not paused and valid move
     public void moveRight() {
-        if (!isPaused && tryMove(curPiece, curX + 1, curY)) {
-            audioPlayer.playSoundEffect("move-turn"); // Play move sound effect
+        if (!isPaused) {
+            engine.moveRight();
         }
     }
 
     // rotate piece if not paused
     public void rotate() {
-        if (!isPaused && tryMove(curPiece.rotateRight(), curX, curY)) {
-            audioPlayer.playSoundEffect("move-turn"); // Play rotate sound effect
+        if (!isPaused) {
+            engine.rotate();
         }
     }
 
-    // Play sound when leveling up
-    private void levelUp() {
-        gameLevel++;
-        audioPlayer.playSoundEffect("level-up"); // Play level up sound effect
-    }
-
     // toggle music
     public void toggleMusic() {
         musicOn = !musicOn;
@@ -578,23 +495,57 @@ public class TetrisBoard extends JPanel implements ActionListener {
         return BOARD_WIDTH;
     }
 
+    // return the piece that spawns next
+    public Shape getNextPiece() {
+        return engine.getNextPiece();
+    }
+
     // return the board and its current values
     public Shape.Tetrominoes[][] getBoard() {
-        return board;
+        return engine.getBoard();
     }
 
-    // AI move integration
-    public void aiMakeMove() {
-        Move bestMove = null;
-        if (isGameOver) {
+    // the headless engine behind this board
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    // searches for (or asks the external player for) the move of the current piece and queues
+    // its input path. Runs once per piece when it spawns, nothing is searched or sent while paused.
+    private void planMove() {
+        if (isPaused || engine.isGameOver() || engine.getCurrentPiece().getShape() == Shape.Tetrominoes.NoShape) {
             return;
         }
-        if (parentFrame.getPlayerOneType().equals("External") || parentFrame.getPlayerTwoType().equals("External")) {
-            bestMove = externalFunction();
+        plannedPiece = engine.getPiecesSpawned();
+        plannedInputs.clear();
+        plannedMove = null;
+        AI_TABLE.newGeneration();
+        if (parentFrame.getPlayerOneType().equals("External")
+                || parentFrame.getPlayerTwoType().equals("External")) {
+            plannedMove = externalFunction();
         } else {
-            bestMove = tetrisAI.findBestMove(this, curPiece);
+            plannedMove = tetrisAI.findBestMove(this, engine.getCurrentPiece());
         }
+        if (plannedMove != null) {
+            plannedTarget = engine.getCurrentPiece().getOrientation().rotate(plannedMove.rotation);
+            planPath(plannedMove);
+        }
+    }
 
+    // AI move integration, sends one input towards the move planned when the piece spawned
+    public void aiMakeMove() {
+        if (isPaused || engine.isGameOver() || engine.getCurrentPiece().getShape() == Shape.Tetrominoes.NoShape) {
+            return;
+        }
+        // a piece that spawned while paused, or before AI play was switched on, is planned now
+        if (plannedPiece != engine.getPiecesSpawned()) {
+            planMove();
+        }
+        Move bestMove = plannedMove;
+
+        if (bestMove != null && followPath(bestMove)) {
+            return;
+        }
         if (bestMove != null) {
             // Rotate the piece to the best rotation
             if (globalRotationValue < bestMove.rotation) {
@@ -602,10 +553,10 @@ public class TetrisBoard extends JPanel implements ActionListener {
                 globalRotationValue++;
             }
             // Move the piece to the best column
-            if (curX < bestMove.column) {
+            if (engine.getCurX() < bestMove.column) {
                 moveRight();
             }
-            if (curX > bestMove.column) {
+            if (engine.getCurX() > bestMove.column) {
                 moveLeft();
             }
             // Drop the piece
@@ -613,21 +564,81 @@ public class TetrisBoard extends JPanel implements ActionListener {
         }
     }
 
+    // queues the shortest input path from the piece's current position to where bestMove lands,
+    // false if that spot cannot be reached
+    private boolean planPath(Move bestMove) {
+        plannedInputs.clear();
+        Shape curPiece = engine.getCurrentPiece();
+        if (curPiece.getShape() == Shape.Tetrominoes.NoShape) {
+            return false;
+        }
+        // the target was fixed when the move was found, the piece may have turned since
+        MoveGenerator.Placement placement = moveGenerator.pathToDrop(engine.getBoard(), curPiece.getOrientation(),
+                engine.getCurX(), engine.getCurY(), plannedTarget, bestMove.column);
+        if (placement == null) {
+            return false;
+        }
+        plannedInputs.addAll(placement.getInputs());
+        return true;
+    }
+
+    // sends the next planned input, false if the planned spot cannot be reached any more
+    private boolean followPath(Move bestMove) {
+        if (plannedInputs.isEmpty() && !planPath(bestMove)) {
+            return false;
+        }
+        // taken off the queue first, a drop spawns the next piece and plans it before returning
+        if (!sendInput(plannedInputs.poll())) {
+            // gravity has moved the piece somewhere the queued path is blocked, plan again from here
+            if (!planPath(bestMove) || !sendInput(plannedInputs.poll())) {
+                plannedInputs.clear();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // applies one input to the engine, false if the piece was blocked
+    private boolean sendInput(MoveGenerator.Input input) {
+        switch (input) {
+            case LEFT:
+                return engine.moveLeft();
+            case RIGHT:
+                return engine.moveRight();
+            case ROTATE:
+                if (!engine.rotate()) {
+                    return false;
+                }
+                globalRotationValue++;
+                return true;
+            case DOWN:
+                engine.moveDown();
+                return true;
+            case DROP:
+                engine.drop();
+                return true;
+            default:
+                return false;
+        }
+    }
+
     // AI game loop
     public void runAIControlledGame() {
         timer = new Timer(INITIAL_DELAY, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (isGameOver) {
+                if (engine.isGameOver()) {
                     return;
                 }
-                if (!isFallingFinished) {
+                if (!engine.isFallingFinished()) {
                     aiMakeMove(); // Let AI make its move
-                    oneLineDown();
+                    // a drop that cleared lines has already finished the piece
+                    if (!engine.isFallingFinished() && !engine.isGameOver()) {
+                        engine.moveDown();
+                    }
                 } else {
-                    isFallingFinished = false;
                     globalRotationValue = 0;
-                    newPiece();
+                    engine.tick(); // spawns the next piece
                 }
                 repaint(); // Ensure the board is refreshed
             }
@@ -637,12 +648,7 @@ public class TetrisBoard extends JPanel implements ActionListener {
 
     // get move from external source
     public Move externalFunction() {
-        PureGame gp = new PureGame();
-        gp.setHeight(BOARD_HEIGHT);
-        gp.setWidth(BOARD_WIDTH);
-        gp.setCells(getBoard());
-        gp.setCurrentShape(curPiece);
-        OpMove move = externalClient.getExternalMove(gp);
+        OpMove move = externalClient.getExternalMove(engine.snapshot());
         if (move == null) {
             parentFrame.showNoConnectionDialogue();
             return null;
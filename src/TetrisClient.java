@@ -1,14 +1,71 @@
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// Client for TetrisServer that keeps one connection open for the life of the board.
+// Requests are tagged with an id that the server copies into its reply, so several
+// requests can be in flight at once and a reader thread hands each reply to the request
+// it answers. When the connection drops, requests in flight fail and the next request
+// reconnects, backing off from 100 ms up to 5 s between failed attempts so a restarting
+// server is not hammered.
+//
+// Requests go out as WireProtocol frames, after a HELLO frame that opens each connection.
+// A server that echoes the hello speaks the protocol. One that answers it with a JSON line,
+// or rejects its version with an error, does not, and the client switches to JSON lines
+// for good and sends the request again. A server that is merely slow is waited for, never
+// taken as a reason to switch.
+//
+// Over binary the server remembers the board of the last request on the connection. Once
+// that request has been answered, the next one is sent as a placement: the last piece
+// dropped where the server said, plus the new pieces and a checksum of the new board.
+// If the piece went somewhere else, or the server lost the board, the checksums differ
+// and the server asks for a resync, which resends that request as a whole board.
 public class TetrisClient {
     // constents for server host and port
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 3000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long REPLY_TIMEOUT_MILLIS = 2000;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
 
     private int playerNumber; // player number
 
+    // wire formats, in the order they are tried
+    public enum Protocol {
+        BINARY, JSON
+    }
+
+    private final Gson gson = new Gson();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<OpMove>> pending = new ConcurrentHashMap<>();
+    private Protocol protocol = Protocol.BINARY;
+    private Socket socket;
+    private OutputStream out;
+    // the last binary request on this connection and the move it got, which the next
+    // request can be sent as a placement against
+    private GameState sessionState;
+    private int sessionId;
+    private OpMove sessionMove; // null until sessionId is answered
+    // the placement request waiting for its reply, resent as a whole board on a resync
+    private int placementId;
+    private GameState placementState;
+    private long backoffMillis = 0; // wait after the last failed connect, 0 when connected
+    private long nextAttempt = 0; // earliest time for the next connect attempt
+    private boolean closed = false;
+
     // setter for player num
     public void setPlayerNumber(int playerNumber) {
         this.playerNumber = playerNumber;
@@ -19,43 +76,286 @@ public class TetrisClient {
         return playerNumber;
     }
 
-    public OpMove getExternalMove(PureGame game) {
-        OpMove move = null;
-
-        try (Socket socket = new Socket(SERVER_HOST, SERVER_PORT);
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+    // protocol requests are sent in
+    public synchronized Protocol getProtocol() {
+        return protocol;
+    }
 
-            // Convert PureGame object to JSON
-            Gson gson = new Gson();
-            String jsonGameState = gson.toJson(game);
+    // picks the protocol for the next connection, dropping the current one if it differs
+    public synchronized void setProtocol(Protocol protocol) {
+        if (this.protocol != protocol) {
+            this.protocol = protocol;
+            disconnect(new IOException("Switching to " + protocol));
+        }
+    }
 
-            // Send the game state to the server
-            out.println(jsonGameState);
-            System.out.println("Sent game state to server!");
+    // asks the server for a move for a game
+    public OpMove getExternalMove(PureGame game) {
+        return getExternalMove(GameState.of(game.getCells(), game.getCurrentShape(), game.getNextShape()));
+    }
 
-            // Wait for the server's response (OpMove)
-            String response = in.readLine();
-            if (response == null || response.isEmpty()) {
-                System.err.println("Received empty response from server.");
+    // sends a request and waits for its reply, null if the server cannot be reached. A
+    // request lost to a dropped connection is sent once more on a new connection, and so is
+    // one the server could not read as binary.
+    public OpMove getExternalMove(GameState state) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                return requestMove(state).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof TimeoutException) {
+                    System.err.println("No reply from server within " + REPLY_TIMEOUT_MILLIS + " ms.");
+                    return null;
+                }
+                System.err.println("Request failed: " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 return null;
             }
-            System.out.println("Received response from server: " + response);
+        }
+        return null;
+    }
+
+    // sends a request without waiting, the future completes with the server's move, or fails
+    // with a TimeoutException if no reply comes within REPLY_TIMEOUT_MILLIS. Several requests
+    // may be outstanding at once.
+    public CompletableFuture<OpMove> requestMove(GameState state) {
+        CompletableFuture<OpMove> reply = new CompletableFuture<>();
+        int id = nextId.incrementAndGet();
+        pending.put(id, reply);
+        // a request that times out is forgotten, so a server that never answers does not
+        // fill pending
+        reply.orTimeout(REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .whenComplete((move, failure) -> pending.remove(id, reply));
+        synchronized (this) {
+            try {
+                connect();
+                out.write(encode(id, state));
+                out.flush();
+            } catch (IOException e) {
+                pending.remove(id);
+                disconnect(e);
+                reply.completeExceptionally(e);
+            }
+        }
+        return reply;
+    }
 
-            // Convert the JSON response to an OpMove object
-            move = gson.fromJson(response, OpMove.class);
-            if (move == null) {
-                System.err.println("Failed to parse OpMove from server response.");
+    // sends a request for a game without waiting
+    public CompletableFuture<OpMove> requestMove(PureGame game) {
+        return requestMove(GameState.of(game.getCells(), game.getCurrentShape(), game.getNextShape()));
+    }
+
+    // a request in the current protocol, a placement when the server has the board it follows
+    private byte[] encode(int id, GameState state) {
+        if (protocol == Protocol.BINARY) {
+            ByteBuffer frame;
+            if (sessionMove != null && sessionState.getWidth() == state.getWidth()
+                    && sessionState.getHeight() == state.getHeight()) {
+                frame = ByteBuffer.allocate(WireProtocol.PLACE_FRAME_SIZE);
+                WireProtocol.writePlacement(frame, id, sessionState.getCurrentPiece(), sessionMove.getOpRotate(),
+                        sessionMove.getOpX(), state);
+                placementId = id;
+                placementState = state;
             } else {
-                // System.out.println("Optimal Move: X=" + move.getOpX() + ", Rotations=" +
-                // move.getOpRotate());
+                frame = ByteBuffer.allocate(WireProtocol.requestFrameSize(state));
+                WireProtocol.writeRequest(frame, id, state);
             }
+            sessionState = state;
+            sessionId = id;
+            sessionMove = null;
+            return frame.array();
+        }
+        PureGame game = new PureGame();
+        game.setWidth(state.getWidth());
+        game.setHeight(state.getHeight());
+        game.setCells(state.toCells());
+        Shape currentShape = new Shape();
+        currentShape.setOrientation(state.getOrientation());
+        game.setCurrentShape(currentShape);
+        Shape nextShape = new Shape();
+        nextShape.setShape(state.getNextPiece());
+        game.setNextShape(nextShape);
+        JsonObject request = gson.toJsonTree(game).getAsJsonObject();
+        request.addProperty("id", id);
+        return (request + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // opens the connection if there is none, failing fast while backing off after a failed attempt
+    private void connect() throws IOException {
+        if (closed) {
+            throw new IOException("Client is closed");
+        }
+        if (socket != null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextAttempt) {
+            throw new IOException("Server unavailable, retrying in " + (nextAttempt - now) + " ms");
+        }
+        Socket newSocket = new Socket();
+        try {
+            newSocket.connect(new InetSocketAddress(SERVER_HOST, SERVER_PORT), CONNECT_TIMEOUT_MILLIS);
+            newSocket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            newSocket.close();
+            backoffMillis = backoffMillis == 0 ? MIN_BACKOFF_MILLIS : Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+            nextAttempt = now + backoffMillis;
+            throw new IOException("Failed to connect to the server: " + e.getMessage(), e);
+        }
+        socket = newSocket;
+        out = new BufferedOutputStream(socket.getOutputStream());
+        if (protocol == Protocol.BINARY) {
+            // goes out with the first request
+            ByteBuffer hello = ByteBuffer.allocate(WireProtocol.HELLO_FRAME_SIZE);
+            WireProtocol.writeHello(hello, nextId.incrementAndGet());
+            out.write(hello.array());
+        }
+        backoffMillis = 0;
+        nextAttempt = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        Protocol connectionProtocol = protocol;
+        Thread reader = new Thread(() -> readReplies(newSocket, connectionProtocol, in), "tetris-client-reader");
+        reader.setDaemon(true);
+        reader.start();
+        System.out.println("Connected to server.");
+    }
 
+    // hands every reply on a connection to the request with the same id
+    private void readReplies(Socket connection, Protocol connectionProtocol, DataInputStream in) {
+        IOException failure = new IOException("Server closed the connection");
+        try {
+            if (connectionProtocol == Protocol.BINARY) {
+                readBinaryReplies(connection, in);
+            } else {
+                readJsonReplies(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+            }
         } catch (IOException e) {
-            System.err.println("Failed to connect to the server: " + e.getMessage());
-            return null;
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new IOException("Bad reply from server: " + e.getMessage(), e);
+        }
+        synchronized (this) {
+            if (socket == connection) {
+                disconnect(failure);
+            }
         }
+    }
+
+    private void readJsonReplies(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            JsonObject reply = JsonParser.parseString(line).getAsJsonObject();
+            if (!reply.has("id")) {
+                continue; // not an answer to one of our requests
+            }
+            CompletableFuture<OpMove> request = pending.remove(reply.get("id").getAsInt());
+            if (request == null) {
+                continue; // already given up on
+            }
+            if (reply.has("error")) {
+                request.completeExceptionally(new IOException(reply.get("error").getAsString()));
+            } else {
+                request.complete(gson.fromJson(reply, OpMove.class));
+            }
+        }
+    }
+
+    private void readBinaryReplies(Socket connection, DataInputStream in) throws IOException {
+        byte[] payload = new byte[WireProtocol.maxReplyFrameSize()];
+        boolean confirmed = false; // this connection's hello has been echoed
+        int first;
+        while ((first = in.read()) >= 0) {
+            if ((byte) first != WireProtocol.MAGIC) {
+                if (!confirmed) {
+                    fallBackToJson(connection); // a JSON server answering the hello it could not parse
+                }
+                throw new IOException("Server does not speak the binary protocol");
+            }
+            int length = in.readUnsignedShort();
+            if (length > payload.length) {
+                throw new IOException("Reply of " + length + " bytes is too long");
+            }
+            in.readFully(payload, 0, length);
+            WireProtocol.Reply reply = WireProtocol.readReply(ByteBuffer.wrap(payload, 0, length));
+            if (!confirmed) {
+                // the first reply on a connection answers its hello
+                if (!reply.hello) {
+                    fallBackToJson(connection);
+                    throw new IOException("Server rejected the binary protocol: " + reply.error);
+                }
+                confirmed = true;
+                continue;
+            }
+            if (reply.resync) {
+                resync(connection, reply.id);
+                continue;
+            }
+            synchronized (this) {
+                if (reply.id == sessionId) {
+                    sessionMove = reply.move;
+                }
+            }
+            CompletableFuture<OpMove> request = pending.remove(reply.id);
+            if (request == null) {
+                continue; // already given up on
+            }
+            if (reply.error != null) {
+                request.completeExceptionally(new IOException(reply.error));
+            } else {
+                request.complete(reply.move);
+            }
+        }
+    }
+
+    // switches to JSON for good when the server on a connection does not speak binary
+    private synchronized void fallBackToJson(Socket connection) {
+        if (socket == connection) {
+            System.out.println("Server does not speak the binary protocol, falling back to JSON.");
+            setProtocol(Protocol.JSON);
+        }
+    }
+
+    // resends a placement the server could not apply as a whole board, under the same id
+    private synchronized void resync(Socket connection, int id) throws IOException {
+        if (socket != connection) {
+            return;
+        }
+        if (id != placementId || placementState == null) {
+            throw new IOException("Resync requested for unknown request " + id);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(WireProtocol.requestFrameSize(placementState));
+        WireProtocol.writeRequest(frame, id, placementState);
+        placementState = null;
+        out.write(frame.array());
+        out.flush();
+    }
+
+    // drops the connection and fails every request still waiting on it
+    private synchronized void disconnect(IOException cause) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already broken
+            }
+            socket = null;
+            out = null;
+        }
+        // a new connection is a new session on the server
+        sessionState = null;
+        sessionMove = null;
+        placementState = null;
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<OpMove> request = pending.remove(id);
+            if (request != null) {
+                request.completeExceptionally(cause);
+            }
+        }
+    }
 
-        return move;
+    // closes the connection for good
+    public synchronized void close() {
+        closed = true;
+        disconnect(new IOException("Client is closed"));
     }
 }
@@ -32,6 +32,8 @@ public class TetrisGame extends JFrame {
     private int gameLevel = 1; // starting level
     private boolean soundEffectOn = true; // starting with sound effects on
     private boolean extendMode = true; // extend mode
+    private boolean expectimaxAI = false; // AI players search with expectimax instead of beam search
+    private int[] aiWeights = BoardEvaluator.getDefaultWeights(); // evaluator weights for AI players
 
     private String playerOneType = "Human"; // AI For Testing
     private String playerTwoType = "Human"; // Human by default
@@ -60,6 +62,7 @@ public class TetrisGame extends JFrame {
         music.playAudio(); // Enable to play from start
         this.highScores = new ArrayList<>();
         loadHighScoresFromJSON(); // Load high scores on startup
+        aiWeights = BoardEvaluator.loadOrDefault(BoardEvaluator.WEIGHTS_FILE).getWeights(); // tuned AI weights if any
     }
 
     // Getter method for AudioPlr
@@ -80,6 +83,7 @@ public class TetrisGame extends JFrame {
         if (board != null) {
             remove(board); // removes game board
         }
+        discardBoards(); // the previous games stop before new boards replace them
 
         setTitle("Tetris");
         setLayout(new BorderLayout());
@@ -206,6 +210,16 @@ public class TetrisGame extends JFrame {
         dialogThread.start();
     }
 
+    // stops the current boards for good, closing their server connections
+    private void discardBoards() {
+        if (board != null) {
+            board.stopGame();
+        }
+        if (board2 != null) {
+            board2.stopGame();
+        }
+    }
+
     // returns to main menu
     private void backToMainMenu() {
         board.timer.stop(); // stop game player 1
@@ -218,6 +232,7 @@ public class TetrisGame extends JFrame {
         int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to return to the main menu?",
                 "Confirm", JOptionPane.YES_NO_OPTION);
         if (confirm == JOptionPane.YES_OPTION) {
+            discardBoards();
             showMainMenu();
         } else {
             if (!board.isPaused()) {
@@ -245,6 +260,26 @@ public class TetrisGame extends JFrame {
         }
     }
 
+    // switches AI players between beam search and expectimax
+    public void updateAISearch(boolean expectimaxAI) {
+        this.expectimaxAI = expectimaxAI;
+    }
+
+    // check if AI players use expectimax
+    public boolean isExpectimaxAI() {
+        return expectimaxAI;
+    }
+
+    // search settings for a new AI player
+    public SearchConfig getAISearchConfig() {
+        return expectimaxAI ? SearchConfig.expectimax() : new SearchConfig();
+    }
+
+    // board evaluator for a new AI player
+    public BoardEvaluator getAIEvaluator() {
+        return new BoardEvaluator(aiWeights);
+    }
+
     // updates player types
     public void updatePlayerTypes(String playerOneType, String playerTwoType) {
         this.playerOneType = playerOneType;
@@ -1,77 +1,402 @@
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
+// AI move server. Every connection is handled on its own thread: a virtual thread per
+// connection when the JVM has them (Java 21 and later), otherwise a platform thread from
+// a cached pool, so a client holding its connection open never keeps another waiting.
+// At most --max-connections (default 512) are served at once, and connections past that
+// are closed as soon as they are accepted, so idle clients cannot use up the server's
+// threads. A connection may send any number of requests, one JSON line each, and gets one OpMove
+// line back per request, in order. A request with an "id" field gets the same id
+// in its reply (and an "error" field instead of a move if it could not be read), so
+// clients can keep several requests in flight on one connection. A connection that starts
+// with WireProtocol.MAGIC speaks the binary protocol instead, a 54 byte request for a
+// 10 x 20 board in place of several KB of JSON, after a HELLO frame the server echoes so
+// the client knows it is understood. A binary connection is also a session: the
+// server keeps the board of its last request, so the client can send just where its last
+// piece landed and the new pieces (a PLACE_REQUEST, 19 bytes) and the server replays the
+// drop on its copy. A checksum of the resulting board catches any drift, and the server
+// then asks for the whole board again.
+//
+// Searches take a TetrisAI from a pool of --concurrency instances (default one per core),
+// which both gives each search its own AI and caps how many searches run at once, so any
+// number of clients can wait without oversubscribing the CPU. The transposition table is
+// shared, it is safe to use from many threads. With --search-threads=N (default 1, every
+// search on its own thread) the AIs also share a pool of N threads that splits the wide
+// plies of each search, which shortens single searches when there are few clients.
+//
+// With --nio the connections are served by NioServer instead: one selector thread for
+// every session and --concurrency worker threads for the searches. Idle sessions cost no
+// thread there, so --max-connections does not apply.
 public class TetrisServer {
     // constants for the servers host and port
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 3000;
-    // instance of tetrisAI
-    private static final TetrisAI tetrisAI = new TetrisAI();;
+    // connections served at once unless --max-connections says otherwise
+    private static final int DEFAULT_MAX_CONNECTIONS = 512;
+    // AIs free for the next search, one per allowed concurrent search
+    private static BlockingQueue<TetrisAI> aiPool;
+    // cache of searched states, clients often resend the same board
+    private static final TranspositionTable transpositionTable = new TranspositionTable(1 << 20);
+    // how many requests between transposition table reports
+    private static final int STATS_INTERVAL = 100;
+    // requests answered so far by all connections
+    private static final AtomicInteger requests = new AtomicInteger();
+    // placement requests received, and how many of them needed a resync
+    private static final AtomicInteger placements = new AtomicInteger();
+    private static final AtomicInteger resyncs = new AtomicInteger();
+    // shape given to filled cells of binary requests, which only carry occupancy
+    private static final Shape.Tetrominoes FILLED = Shape.Tetrominoes.ZShape;
 
     public static void main(String[] args) {
+        SearchConfig config = parseSearchConfig(args);
+        BoardEvaluator evaluator = loadEvaluator(args);
+        int concurrency = parseCount(args, "--concurrency=", Runtime.getRuntime().availableProcessors());
+        int searchThreads = parseCount(args, "--search-threads=", 1);
+        ForkJoinPool searchPool = searchThreads > 1 ? new ForkJoinPool(searchThreads) : null;
+        aiPool = new ArrayBlockingQueue<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            TetrisAI ai = new TetrisAI(config, searchPool, new BoardEvaluator(evaluator.getWeights()));
+            ai.setTranspositionTable(transpositionTable);
+            aiPool.add(ai);
+        }
+        System.out.println("AI search: " + config + ", " + searchThreads + " thread(s) per search");
+        System.out.println("AI weights: " + Arrays.toString(evaluator.getWeights()));
+
+        if (Arrays.asList(args).contains("--nio")) {
+            try {
+                new NioServer(SERVER_PORT, concurrency).run();
+            } catch (IOException e) {
+                System.out.println("Error in server. " + e.getMessage());
+            }
+            return;
+        }
+
+        int maxConnections = parseCount(args, "--max-connections=", DEFAULT_MAX_CONNECTIONS);
+        Semaphore connectionSlots = new Semaphore(maxConnections);
+        ExecutorService connections = newConnectionExecutor();
         // try and open server socket on specified port
         try (ServerSocket serverSocket = new ServerSocket(SERVER_PORT)) {
-            System.out.println("Tetris Server is listening on port " + SERVER_PORT);
+            System.out.println("Tetris Server is listening on port " + SERVER_PORT + ", " + concurrency
+                    + " concurrent searches, " + maxConnections + " connections");
 
             while (true) {
-                try (Socket socket = serverSocket.accept()) {
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                    PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
-
-                    // Read the message
-                    String Message = in.readLine();
-                    System.out.println("Received response from client!");
-
-                    JsonObject jsonObject = JsonParser.parseString(Message).getAsJsonObject();
-                    // Get Width & Height
-                    int boardWidth = jsonObject.get("width").getAsInt();
-                    int boardHeight = jsonObject.get("height").getAsInt();
-                    // Get current Piece
-                    JsonObject currentPiece = jsonObject.getAsJsonObject("currentShape");
-                    String pieceShape = currentPiece.get("pieceShape").getAsString();
-                    Shape curPiece = new Shape();
-                    curPiece.setShape(Shape.Tetrominoes.valueOf(pieceShape));
-                    // Get Board
-                    JsonArray cellsArray = jsonObject.getAsJsonArray("cells");
-                    String[][] cells = new String[cellsArray.size()][];
-                    for (int i = 0; i < cellsArray.size(); i++) {
-                        JsonArray row = cellsArray.get(i).getAsJsonArray();
-                        cells[i] = new String[row.size()];
-
-                        for (int j = 0; j < row.size(); j++) {
-                            cells[i][j] = row.get(j).getAsString();
-                        }
+                Socket socket = serverSocket.accept();
+                if (!connectionSlots.tryAcquire()) {
+                    socket.close(); // at the limit, the client sees the connection drop and retries later
+                    continue;
+                }
+                connections.execute(() -> {
+                    try {
+                        handleConnection(socket);
+                    } finally {
+                        connectionSlots.release();
                     }
+                });
+            }
+        } catch (Exception e) {
+            System.out.println("Error in server. " + e.getMessage());
+        } finally {
+            connections.shutdownNow();
+        }
+    }
 
-                    // Convert Array of Strings to Shape.Tetrominoes
-                    Shape.Tetrominoes[][] cellsBoard = new Shape.Tetrominoes[boardHeight][boardWidth];
-                    // Print the 2D array
-                    for (int i = 0; i < cells.length; i++) {
-                        for (int j = 0; j < cells[i].length; j++) {
-                            cellsBoard[i][j] = Shape.Tetrominoes.valueOf(cells[i][j]);
-                        }
-                    }
+    // a virtual thread per connection where available, otherwise a cached pool that grows
+    // with the open connections up to the connection limit. Only aiPool limits how many
+    // searches run at once.
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            System.out.println("Handling connections on virtual threads");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Handling connections on a thread each (use --nio for many idle clients)");
+            return Executors.newCachedThreadPool();
+        }
+    }
 
-                    // Get BestMove
-                    Move bestMove = tetrisAI.findBestMove(cellsBoard, curPiece);
-                    // Pass into opmove
-                    OpMove opmove = new OpMove(bestMove.column, bestMove.rotation);
+    // answers every request on a connection until the client closes it. The first byte
+    // picks the protocol: WireProtocol.MAGIC for binary frames, anything else for JSON lines.
+    private static void handleConnection(Socket socket) {
+        try (socket;
+                BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            socket.setTcpNoDelay(true);
+            in.mark(1);
+            int first = in.read();
+            if (first < 0) {
+                return;
+            }
+            in.reset();
+            if ((byte) first == WireProtocol.MAGIC) {
+                serveBinary(new DataInputStream(in), out);
+            } else {
+                serveJson(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)),
+                        new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), true));
+            }
+        } catch (IOException e) {
+            System.out.println("Connection closed. " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // answers JSON request lines
+    private static void serveJson(BufferedReader in, PrintWriter out) throws IOException, InterruptedException {
+        String message;
+        while ((message = in.readLine()) != null) {
+            if (message.isEmpty()) {
+                continue;
+            }
+            out.println(handleRequest(message));
+        }
+    }
+
+    // answers binary request frames, reusing one buffer for every payload
+    private static void serveBinary(DataInputStream in, OutputStream out) throws IOException, InterruptedException {
+        BoardSession session = new BoardSession();
+        byte[] payload = new byte[256];
+        int first;
+        while ((first = in.read()) >= 0) {
+            if ((byte) first != WireProtocol.MAGIC) {
+                throw new IOException("Bad frame start " + first);
+            }
+            int length = in.readUnsignedShort();
+            if (length > payload.length) {
+                payload = new byte[length];
+            }
+            in.readFully(payload, 0, length);
+            ByteBuffer reply = handleBinary(ByteBuffer.wrap(payload, 0, length), session);
+            out.write(reply.array(), reply.arrayOffset() + reply.position(), reply.remaining());
+            out.flush();
+        }
+    }
+
+    // the board a binary connection's client last asked about, for replaying placements.
+    // Only used by one request at a time.
+    static final class BoardSession {
+        private GameState state; // last searched snapshot, null until a full board arrives
+        private BitBoard board; // scratch for replaying drops
+
+        // the game after a placement, or null if it cannot be applied or the result does not
+        // match the client's checksum
+        GameState apply(WireProtocol.Placement placement) {
+            if (state == null || placement.piece != state.getCurrentPiece()) {
+                return null;
+            }
+            int width = state.getWidth();
+            int height = state.getHeight();
+            if (board == null || board.getWidth() != width || board.getHeight() != height) {
+                board = new BitBoard(width, height);
+            }
+            board.load(state);
+            BitBoard.Piece piece = state.getOrientation().rotate(placement.rotation).getPiece();
+            int row = board.dropRow(piece, placement.column);
+            if (row < 0) {
+                return null;
+            }
+            board.place(piece, placement.column, row);
+            board.clearFullLines();
+            // back to the game frame, row 0 at the bottom
+            GameState.Builder next = new GameState.Builder(width, height);
+            for (int y = 0; y < height; y++) {
+                next.occupancy(y, board.getRow(height - 1 - y), FILLED);
+            }
+            next.currentPiece(placement.currentPiece, placement.currentRotation);
+            next.nextPiece(placement.nextPiece);
+            GameState result = next.build();
+            return WireProtocol.checksum(result) == placement.checksum ? result : null;
+        }
+    }
 
-                    // Send it back to client
-                    Gson gson = new Gson();
-                    String jsonGameState = gson.toJson(opmove);
-                    System.out.println("Sending " + jsonGameState);
-                    out.println(jsonGameState);
+    // searches the game in one binary request payload and returns the whole reply frame
+    static ByteBuffer handleBinary(ByteBuffer payload, BoardSession session) throws InterruptedException {
+        ByteBuffer reply = ByteBuffer.allocate(WireProtocol.maxReplyFrameSize());
+        int id = WireProtocol.id(payload);
+        try {
+            int type = WireProtocol.type(payload);
+            GameState state;
+            if (type == WireProtocol.MOVE_REQUEST) {
+                state = WireProtocol.readRequest(payload, FILLED);
+            } else if (type == WireProtocol.PLACE_REQUEST) {
+                placements.incrementAndGet();
+                state = session.apply(WireProtocol.readPlacement(payload));
+                if (state == null) {
+                    resyncs.incrementAndGet();
+                    WireProtocol.writeResync(reply, id);
+                    reply.flip();
+                    return reply;
                 }
+            } else if (type == WireProtocol.HELLO) {
+                WireProtocol.writeHello(reply, id);
+                reply.flip();
+                return reply;
+            } else {
+                throw new IOException("Unexpected frame type " + type);
+            }
+            session.state = state;
+            OpMove move = findMove(state);
+            WireProtocol.writeReply(reply, id, move.getOpX(), move.getOpRotate());
+        } catch (IOException | RuntimeException e) {
+            session.state = null; // the next placement needs a whole board
+            WireProtocol.writeError(reply, id, "Bad request: " + e.getMessage());
+        }
+        reply.flip();
+        return reply;
+    }
+
+    // searches the game in one JSON request and returns the JSON reply
+    static String handleRequest(String message) throws InterruptedException {
+        JsonObject request;
+        try {
+            request = JsonParser.parseString(message).getAsJsonObject();
+        } catch (RuntimeException e) {
+            JsonObject reply = new JsonObject();
+            reply.addProperty("error", "Bad request: " + e.getMessage());
+            return reply.toString();
+        }
+        JsonObject reply;
+        try {
+            reply = new Gson().toJsonTree(findMove(parseRequest(request))).getAsJsonObject();
+        } catch (RuntimeException e) {
+            reply = new JsonObject();
+            reply.addProperty("error", "Bad request: " + e.getMessage());
+        }
+        if (request.has("id")) {
+            reply.add("id", request.get("id"));
+        }
+        return reply.toString();
+    }
+
+    // searches a snapshot on the next free AI
+    private static OpMove findMove(GameState state) throws InterruptedException {
+        // Get BestMove, waiting for a free AI when every one is searching
+        // every request is a new piece for some client
+        transpositionTable.newGeneration();
+        TetrisAI ai = aiPool.take();
+        Move bestMove;
+        try {
+            bestMove = ai.findBestMove(state);
+        } finally {
+            aiPool.add(ai);
+        }
+        // Pass into opmove
+        OpMove opmove = new OpMove(bestMove.column, bestMove.rotation);
+
+        // report cache hit rate and memory footprint
+        if (requests.incrementAndGet() % STATS_INTERVAL == 0) {
+            System.out.println(transpositionTable);
+            System.out.println("Placements: " + placements.get() + ", resyncs: " + resyncs.get());
+        }
+        return opmove;
+    }
+
+    // reads a PureGame JSON request straight into a snapshot
+    private static GameState parseRequest(JsonObject jsonObject) {
+        // Get Width & Height
+        int boardWidth = jsonObject.get("width").getAsInt();
+        int boardHeight = jsonObject.get("height").getAsInt();
+        GameState.Builder state = new GameState.Builder(boardWidth, boardHeight);
+        // Get current Piece
+        JsonObject currentPiece = jsonObject.getAsJsonObject("currentShape");
+        state.currentPiece(Shape.Tetrominoes.valueOf(currentPiece.get("pieceShape").getAsString()), 0);
+        // Get next Piece if the client sent one
+        if (jsonObject.has("nextShape") && jsonObject.get("nextShape").isJsonObject()) {
+            state.nextPiece(Shape.Tetrominoes.valueOf(
+                    jsonObject.getAsJsonObject("nextShape").get("pieceShape").getAsString()));
+        }
+        // Get Board, straight into the packed rows
+        JsonArray cellsArray = jsonObject.getAsJsonArray("cells");
+        for (int i = 0; i < cellsArray.size(); i++) {
+            JsonArray row = cellsArray.get(i).getAsJsonArray();
+            for (int j = 0; j < row.size(); j++) {
+                state.cell(j, i, Shape.Tetrominoes.valueOf(row.get(j).getAsString()));
+            }
+        }
+        return state.build();
+    }
+
+    // reads a count option such as --concurrency=N (searches allowed at once) or
+    // --search-threads=N (threads splitting each search), at least 1
+    private static int parseCount(String[] args, String option, int defaultValue) {
+        int count = defaultValue;
+        for (String arg : args) {
+            if (arg.startsWith(option)) {
+                try {
+                    count = Math.max(1, Integer.parseInt(arg.substring(option.length())));
+                } catch (NumberFormatException e) {
+                    System.out.println("Ignoring bad option " + arg + ": " + e.getMessage());
+                }
+            }
+        }
+        return count;
+    }
+
+    // loads the evaluator weights from --weights=FILE, or from the default weight file if there is one
+    private static BoardEvaluator loadEvaluator(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--weights=")) {
+                String fileName = arg.substring("--weights=".length());
+                try {
+                    return BoardEvaluator.load(fileName);
+                } catch (IOException e) {
+                    System.out.println("Could not load weights, using the defaults. " + e.getMessage());
+                    return new BoardEvaluator();
+                }
+            }
+        }
+        return BoardEvaluator.loadOrDefault(BoardEvaluator.WEIGHTS_FILE);
+    }
+
+    // reads search settings from the command line:
+    // --expectimax, --depth=N, --beam=N, --deadline=MS, --hidden
+    // (--weights=FILE, --concurrency=N, --search-threads=N, --max-connections=N and --nio
+    // are read separately)
+    private static SearchConfig parseSearchConfig(String[] args) {
+        SearchConfig config = new SearchConfig();
+        for (String arg : args) {
+            if (arg.equals("--expectimax")) {
+                SearchConfig expectimax = SearchConfig.expectimax();
+                expectimax.setParallelThreshold(config.getParallelThreshold());
+                config = expectimax;
+            }
+        }
+        for (String arg : args) {
+            try {
+                if (arg.startsWith("--depth=")) {
+                    config.setDepth(Integer.parseInt(arg.substring("--depth=".length())));
+                } else if (arg.startsWith("--beam=")) {
+                    config.setBeamWidth(Integer.parseInt(arg.substring("--beam=".length())));
+                } else if (arg.startsWith("--deadline=")) {
+                    config.setTimeBudgetMillis(Long.parseLong(arg.substring("--deadline=".length())));
+                } else if (arg.equals("--hidden")) {
+                    config.setExpectHiddenPiece(true);
+                } else if (!arg.equals("--expectimax") && !arg.startsWith("--weights=")
+                        && !arg.startsWith("--concurrency=") && !arg.startsWith("--search-threads=")
+                        && !arg.startsWith("--max-connections=") && !arg.equals("--nio")) {
+                    System.out.println("Ignoring unknown option " + arg);
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Ignoring bad option " + arg + ": " + e.getMessage());
             }
-        } catch (Exception e) {
-            System.out.println("Error in server. " + e.getMessage());
         }
+        return config;
     }
-}
\ No newline at end of file
+}
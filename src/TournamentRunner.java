@@ -0,0 +1,509 @@
+// File: src/TournamentRunner.java
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Headless AI self-play tournament. Every contestant (a search config plus a set of
+// evaluator weights) plays the same seeded piece sequences, so differences in the
+// results come from the AI and not from luck with the pieces. Games run in turbo mode
+// on a fixed pool of threads, one game per thread at a time, and the per-game results
+// and per-contestant summaries are written to a JSON file.
+//
+// With --search-threads=N above 1 the AIs also share a pool of N threads that splits the
+// wide plies of each search, for tournaments with fewer games than cores.
+//
+// Usage: java TournamentRunner [--games=N] [--threads=N] [--search-threads=N] [--seed=N]
+//        [--pieces=BAG|UNIFORM]
+//        [--max-pieces=N] [--width=N] [--height=N] [--out=FILE] [--ai=NAME:SPEC ...]
+// where SPEC is a comma separated list of greedy, beam or expectimax, depth=N, width=N,
+// deadline=MS, hidden and weights=A/B/C/D. The deadline defaults to 0 (no time limit) so
+// that a seed always gives the same game.
+public class TournamentRunner {
+    // an AI setup taking part in a tournament
+    public static final class Contestant {
+        private final String name;
+        private final SearchConfig config;
+        private final int[] weights;
+
+        public Contestant(String name, SearchConfig config, int[] weights) {
+            this.name = name;
+            this.config = config;
+            this.weights = weights.clone();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SearchConfig getConfig() {
+            return config;
+        }
+
+        public int[] getWeights() {
+            return weights.clone();
+        }
+
+        // a fresh AI for one game, games never share search state. A null pool searches serially.
+        TetrisAI newAI(ForkJoinPool searchPool) {
+            return new TetrisAI(config, searchPool, new BoardEvaluator(weights));
+        }
+    }
+
+    // result of one game
+    public static final class GameResult {
+        private final String contestant;
+        private final long seed;
+        private final int score;
+        private final int lines;
+        private final long pieces;
+        private final long ticks;
+        private final double seconds;
+        private final boolean survived; // still alive when the piece limit was reached
+
+        GameResult(String contestant, long seed, int score, int lines, long pieces, long ticks, double seconds,
+                boolean survived) {
+            this.contestant = contestant;
+            this.seed = seed;
+            this.score = score;
+            this.lines = lines;
+            this.pieces = pieces;
+            this.ticks = ticks;
+            this.seconds = seconds;
+            this.survived = survived;
+        }
+
+        public String getContestant() {
+            return contestant;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        public long getPieces() {
+            return pieces;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public boolean isSurvived() {
+            return survived;
+        }
+    }
+
+    // results of one contestant over every seed
+    public static final class Summary {
+        private final String contestant;
+        private final String config;
+        private final int[] weights;
+        private final int games;
+        private final double meanScore;
+        private final double meanLines;
+        private final double meanPieces;
+        private final double piecesPerSecond; // per thread, total pieces over total game time
+        private final double survivalRate;
+        private final Map<String, Long> piecesSurvived; // distribution of pieces placed per game
+
+        Summary(Contestant contestant, List<GameResult> results) {
+            this.contestant = contestant.getName();
+            this.config = contestant.getConfig().toString();
+            this.weights = contestant.getWeights();
+            this.games = results.size();
+            long score = 0;
+            long lines = 0;
+            long pieces = 0;
+            double seconds = 0;
+            int survived = 0;
+            long[] sorted = new long[games];
+            for (int i = 0; i < games; i++) {
+                GameResult result = results.get(i);
+                score += result.getScore();
+                lines += result.getLines();
+                pieces += result.getPieces();
+                seconds += result.getSeconds();
+                if (result.isSurvived()) {
+                    survived++;
+                }
+                sorted[i] = result.getPieces();
+            }
+            Arrays.sort(sorted);
+            this.meanScore = games == 0 ? 0 : (double) score / games;
+            this.meanLines = games == 0 ? 0 : (double) lines / games;
+            this.meanPieces = games == 0 ? 0 : (double) pieces / games;
+            this.piecesPerSecond = seconds == 0 ? 0 : pieces / seconds;
+            this.survivalRate = games == 0 ? 0 : (double) survived / games;
+            this.piecesSurvived = new LinkedHashMap<>();
+            if (games > 0) {
+                piecesSurvived.put("min", sorted[0]);
+                piecesSurvived.put("p10", percentile(sorted, 10));
+                piecesSurvived.put("p25", percentile(sorted, 25));
+                piecesSurvived.put("p50", percentile(sorted, 50));
+                piecesSurvived.put("p75", percentile(sorted, 75));
+                piecesSurvived.put("p90", percentile(sorted, 90));
+                piecesSurvived.put("max", sorted[games - 1]);
+            }
+        }
+
+        // nearest rank percentile of sorted values
+        private static long percentile(long[] sorted, int percent) {
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+
+        public String getContestant() {
+            return contestant;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        public double getMeanScore() {
+            return meanScore;
+        }
+
+        public double getMeanLines() {
+            return meanLines;
+        }
+
+        public double getMeanPieces() {
+            return meanPieces;
+        }
+
+        public double getPiecesPerSecond() {
+            return piecesPerSecond;
+        }
+
+        public double getSurvivalRate() {
+            return survivalRate;
+        }
+
+        public Map<String, Long> getPiecesSurvived() {
+            return piecesSurvived;
+        }
+    }
+
+    // a whole tournament, as written to the results file
+    public static final class Results {
+        private final int width;
+        private final int height;
+        private final String pieces;
+        private final long seed;
+        private final long[] seeds;
+        private final long maxPieces;
+        private final int threads;
+        private final int searchThreads;
+        private final double wallSeconds;
+        private final List<Summary> summaries;
+        private final List<GameResult> games;
+
+        Results(TournamentRunner runner, long[] seeds, double wallSeconds, List<Summary> summaries,
+                List<GameResult> games) {
+            this.width = runner.width;
+            this.height = runner.height;
+            this.pieces = runner.pieces.toString();
+            this.seed = runner.seed;
+            this.seeds = seeds;
+            this.maxPieces = runner.maxPieces;
+            this.threads = runner.threads;
+            this.searchThreads = runner.searchThreads;
+            this.wallSeconds = wallSeconds;
+            this.summaries = summaries;
+            this.games = games;
+        }
+
+        public List<Summary> getSummaries() {
+            return summaries;
+        }
+
+        public List<GameResult> getGames() {
+            return games;
+        }
+
+        public double getWallSeconds() {
+            return wallSeconds;
+        }
+
+        // writes the results as JSON
+        public void write(Writer writer) throws IOException {
+            Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+            gson.toJson(this, writer);
+            writer.flush();
+        }
+    }
+
+    private final List<Contestant> contestants = new ArrayList<>();
+    private int width = 10;
+    private int height = 20;
+    private int level = 1;
+    private int games = 20;
+    private long seed = 1;
+    private PieceGenerator.Kind pieces = PieceGenerator.Kind.BAG;
+    private long maxPieces = 5000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int searchThreads = 1;
+
+    public void addContestant(Contestant contestant) {
+        contestants.add(contestant);
+    }
+
+    public List<Contestant> getContestants() {
+        return contestants;
+    }
+
+    public void setBoardSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    // seeds each contestant plays
+    public void setGames(int games) {
+        if (games < 1) {
+            throw new IllegalArgumentException("A tournament needs at least one game: " + games);
+        }
+        this.games = games;
+    }
+
+    // seed the game seeds are drawn from
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setPieces(PieceGenerator.Kind pieces) {
+        this.pieces = pieces;
+    }
+
+    // games stop after this many pieces and count as survived, 0 for no limit
+    public void setMaxPieces(long maxPieces) {
+        this.maxPieces = Math.max(0, maxPieces);
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A tournament needs at least one thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    // threads shared by every game for splitting searches, 1 to search each game serially
+    public void setSearchThreads(int searchThreads) {
+        if (searchThreads < 1) {
+            throw new IllegalArgumentException("Searches need at least one thread: " + searchThreads);
+        }
+        this.searchThreads = searchThreads;
+    }
+
+    // plays every contestant on every seed and collects the results
+    public Results run() throws InterruptedException {
+        if (contestants.isEmpty()) {
+            throw new IllegalStateException("No contestants");
+        }
+        long[] seeds = new long[games];
+        SplittableRandom seedSource = new SplittableRandom(seed);
+        for (int i = 0; i < games; i++) {
+            seeds[i] = seedSource.nextLong();
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ForkJoinPool searchPool = searchThreads > 1 ? new ForkJoinPool(searchThreads) : null;
+        List<List<Future<GameResult>>> futures = new ArrayList<>();
+        try {
+            for (Contestant contestant : contestants) {
+                futures.add(new ArrayList<>());
+            }
+            // seed by seed, so every contestant has results early in a long run
+            for (long gameSeed : seeds) {
+                for (int c = 0; c < contestants.size(); c++) {
+                    Contestant contestant = contestants.get(c);
+                    futures.get(c).add(executor.submit(() -> play(contestant, gameSeed, searchPool)));
+                }
+            }
+
+            List<Summary> summaries = new ArrayList<>();
+            List<GameResult> results = new ArrayList<>();
+            for (int c = 0; c < contestants.size(); c++) {
+                List<GameResult> contestantResults = new ArrayList<>();
+                for (Future<GameResult> future : futures.get(c)) {
+                    contestantResults.add(future.get());
+                }
+                summaries.add(new Summary(contestants.get(c), contestantResults));
+                results.addAll(contestantResults);
+            }
+            double wallSeconds = (System.nanoTime() - start) / 1e9;
+            return new Results(this, seeds, wallSeconds, summaries, results);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Tournament game failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (searchPool != null) {
+                searchPool.shutdownNow();
+            }
+        }
+    }
+
+    // plays one game to the end or to the piece limit
+    private GameResult play(Contestant contestant, long gameSeed, ForkJoinPool searchPool) {
+        SimulationLoop loop = new SimulationLoop(width, height, level, pieces, gameSeed,
+                new AIController(contestant.newAI(searchPool)), 0);
+        loop.setTurbo(true);
+        GameEngine engine = loop.getEngine();
+        long start = System.nanoTime();
+        loop.start();
+        while (loop.step()) {
+            if (maxPieces > 0 && engine.getPiecesSpawned() > maxPieces) {
+                break;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // the last piece spawned never locked, either it did not fit or the limit stopped it
+        long placed = Math.max(0, engine.getPiecesSpawned() - 1);
+        return new GameResult(contestant.getName(), gameSeed, engine.getScore(), engine.getLinesRemoved(), placed,
+                loop.getTick(), seconds, !engine.isGameOver());
+    }
+
+    public static void main(String[] args) {
+        TournamentRunner runner = new TournamentRunner();
+        String out = "tournament_results.json";
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--games=")) {
+                    runner.setGames(Integer.parseInt(arg.substring("--games=".length())));
+                } else if (arg.startsWith("--threads=")) {
+                    runner.setThreads(Integer.parseInt(arg.substring("--threads=".length())));
+                } else if (arg.startsWith("--search-threads=")) {
+                    runner.setSearchThreads(Integer.parseInt(arg.substring("--search-threads=".length())));
+                } else if (arg.startsWith("--seed=")) {
+                    runner.setSeed(Long.parseLong(arg.substring("--seed=".length())));
+                } else if (arg.startsWith("--pieces=")) {
+                    runner.setPieces(PieceGenerator.Kind.valueOf(arg.substring("--pieces=".length()).toUpperCase()));
+                } else if (arg.startsWith("--max-pieces=")) {
+                    runner.setMaxPieces(Long.parseLong(arg.substring("--max-pieces=".length())));
+                } else if (arg.startsWith("--width=")) {
+                    runner.setBoardSize(Integer.parseInt(arg.substring("--width=".length())), runner.height);
+                } else if (arg.startsWith("--height=")) {
+                    runner.setBoardSize(runner.width, Integer.parseInt(arg.substring("--height=".length())));
+                } else if (arg.startsWith("--out=")) {
+                    out = arg.substring("--out=".length());
+                } else if (arg.startsWith("--ai=")) {
+                    runner.addContestant(parseContestant(arg.substring("--ai=".length())));
+                } else {
+                    System.out.println("Ignoring unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Bad option: " + e.getMessage());
+            return;
+        }
+        if (runner.getContestants().isEmpty()) {
+            runner.addContestant(parseContestant("greedy:greedy"));
+            runner.addContestant(parseContestant("beam:beam"));
+        }
+
+        try {
+            Results results = runner.run();
+            for (Summary summary : results.getSummaries()) {
+                System.out.printf("%-16s games %d  lines %.1f  score %.1f  pieces %.1f  pieces/s %.0f  survived %.0f%%  median pieces %d%n",
+                        summary.getContestant(), summary.getGames(), summary.getMeanLines(), summary.getMeanScore(),
+                        summary.getMeanPieces(), summary.getPiecesPerSecond(), summary.getSurvivalRate() * 100,
+                        summary.getPiecesSurvived().get("p50"));
+            }
+            System.out.printf("Finished in %.1f s%n", results.getWallSeconds());
+            try (FileWriter writer = new FileWriter(out)) {
+                results.write(writer);
+            }
+            System.out.println("Results written to " + out);
+        } catch (IOException e) {
+            System.out.println("Could not write results. " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // reads NAME:SPEC, see the usage above
+    static Contestant parseContestant(String arg) {
+        int colon = arg.indexOf(':');
+        String name = colon < 0 ? arg : arg.substring(0, colon);
+        String spec = colon < 0 ? arg : arg.substring(colon + 1);
+        SearchConfig config = new SearchConfig();
+        int[] weights = BoardEvaluator.getDefaultWeights();
+        Integer depth = null;
+        Integer beamWidth = null;
+        long deadline = 0;
+        boolean hidden = false;
+        for (String token : spec.split(",")) {
+            token = token.trim();
+            if (token.equals("greedy")) {
+                config = SearchConfig.greedy();
+            } else if (token.equals("beam")) {
+                config = new SearchConfig();
+            } else if (token.equals("expectimax")) {
+                config = SearchConfig.expectimax();
+            } else if (token.startsWith("depth=")) {
+                depth = Integer.parseInt(token.substring("depth=".length()));
+            } else if (token.startsWith("width=")) {
+                beamWidth = Integer.parseInt(token.substring("width=".length()));
+            } else if (token.startsWith("deadline=")) {
+                deadline = Long.parseLong(token.substring("deadline=".length()));
+            } else if (token.equals("hidden")) {
+                hidden = true;
+            } else if (token.startsWith("weights=")) {
+                String[] parts = token.substring("weights=".length()).split("/");
+                weights = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    weights[i] = Integer.parseInt(parts[i].trim());
+                }
+                if (weights.length != BoardEvaluator.FEATURE_COUNT) {
+                    throw new IllegalArgumentException("Expected " + BoardEvaluator.FEATURE_COUNT
+                            + " weights in " + token);
+                }
+            } else if (!token.isEmpty()) {
+                throw new IllegalArgumentException("Unknown AI setting " + token + " in " + arg);
+            }
+        }
+        if (depth != null) {
+            config.setDepth(depth);
+        }
+        if (beamWidth != null) {
+            config.setBeamWidth(beamWidth);
+        }
+        config.setTimeBudgetMillis(deadline);
+        if (hidden) {
+            config.setExpectHiddenPiece(true);
+        }
+        return new Contestant(name, config, weights);
+    }
+}
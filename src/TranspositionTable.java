@@ -0,0 +1,166 @@
+// File: src/TranspositionTable.java
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-size cache of search results keyed by Zobrist hash, shared between threads
+// without locks. Each slot is a key/data pair where the key is stored XORed with the
+// data, so a slot torn by two threads writing at once fails the check and reads as a
+// miss instead of returning another state's result.
+//
+// Slots come in pairs: the first keeps the deepest result (replaced by equal or deeper
+// results, or by anything once it is from an older search generation) and the second
+// always takes the newest result. Owners start a new generation once per spawned piece, so
+// deep results stay preferred while that piece is being searched.
+public class TranspositionTable {
+    // value returned by probe when the key is not in the table
+    public static final long MISS = 0L;
+
+    // data layout: score (32) | column (8) | rotation (2) | depth (8) | generation (8) | valid (1)
+    private static final int COLUMN_SHIFT = 32;
+    private static final int ROTATION_SHIFT = 40;
+    private static final int DEPTH_SHIFT = 42;
+    private static final int GENERATION_SHIFT = 50;
+    private static final long VALID = 1L << 58;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int bucketMask;
+    private final AtomicInteger generation = new AtomicInteger();
+
+    // metrics
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+
+    // creates a table with at least the given number of slots, rounded up to a power of two
+    public TranspositionTable(int slots) {
+        int size = Integer.highestOneBit(Math.max(2, slots - 1)) << 1;
+        keys = new long[size];
+        data = new long[size];
+        bucketMask = size / 2 - 1;
+    }
+
+    // marks the start of a new piece so older deep entries can be replaced
+    public void newGeneration() {
+        generation.updateAndGet(g -> (g + 1) & 0xFF);
+    }
+
+    // returns the packed entry for key, or MISS
+    public long probe(long key) {
+        probes.increment();
+        int slot = bucket(key);
+        for (int i = slot; i < slot + 2; i++) {
+            long entry = data[i];
+            if ((entry & VALID) != 0 && (keys[i] ^ entry) == key) {
+                hits.increment();
+                return entry;
+            }
+        }
+        return MISS;
+    }
+
+    // stores a result, the column and rotation may be 0 for score-only entries
+    public void store(long key, int score, int column, int rotation, int depth) {
+        int current = generation.get();
+        long entry = (score & 0xFFFFFFFFL)
+                | ((long) (column & 0xFF) << COLUMN_SHIFT)
+                | ((long) (rotation & 3) << ROTATION_SHIFT)
+                | ((long) (depth & 0xFF) << DEPTH_SHIFT)
+                | ((long) current << GENERATION_SHIFT)
+                | VALID;
+        int slot = bucket(key);
+        long deep = data[slot];
+        boolean replaceDeep = (deep & VALID) == 0
+                || (keys[slot] ^ deep) == key
+                || depth(deep) <= depth
+                || generation(deep) != current;
+        int target = replaceDeep ? slot : slot + 1;
+        if ((data[target] & VALID) != 0) {
+            overwrites.increment();
+        }
+        data[target] = entry;
+        keys[target] = key ^ entry;
+        stores.increment();
+    }
+
+    // unpacks the score of an entry
+    public static int score(long entry) {
+        return (int) entry;
+    }
+
+    // unpacks the column of an entry
+    public static int column(long entry) {
+        return (int) (entry >>> COLUMN_SHIFT) & 0xFF;
+    }
+
+    // unpacks the rotation of an entry
+    public static int rotation(long entry) {
+        return (int) (entry >>> ROTATION_SHIFT) & 3;
+    }
+
+    // unpacks the search depth of an entry
+    public static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    private static int generation(long entry) {
+        return (int) (entry >>> GENERATION_SHIFT) & 0xFF;
+    }
+
+    // first slot of the bucket for key
+    private int bucket(long key) {
+        return ((int) (key ^ (key >>> 32)) & bucketMask) << 1;
+    }
+
+    // empties the table and resets the metrics
+    public void clear() {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = 0;
+            keys[i] = 0;
+        }
+        probes.reset();
+        hits.reset();
+        stores.reset();
+        overwrites.reset();
+    }
+
+    public int getSlots() {
+        return data.length;
+    }
+
+    // bytes held by the key and data arrays
+    public long getMemoryBytes() {
+        return 2L * Long.BYTES * data.length;
+    }
+
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    public long getOverwrites() {
+        return overwrites.sum();
+    }
+
+    // share of probes that found their key, 0 before the first probe
+    public double getHitRate() {
+        long total = probes.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TranspositionTable [slots=%d, memory=%.1f MB, probes=%d, hitRate=%.1f%%, stores=%d, overwrites=%d]",
+                getSlots(), getMemoryBytes() / (1024.0 * 1024.0), getProbes(), getHitRate() * 100, getStores(),
+                getOverwrites());
+    }
+}
@@ -0,0 +1,29 @@
+// File: src/UniformPieceGenerator.java
+
+import java.util.SplittableRandom;
+
+// Picks each of the 7 shapes with equal chance on every draw
+class UniformPieceGenerator implements PieceGenerator {
+    private static final Shape.Tetrominoes[] SHAPES = Shape.Tetrominoes.values();
+
+    private final SplittableRandom random;
+
+    UniformPieceGenerator(SplittableRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public Shape.Tetrominoes next() {
+        return SHAPES[random.nextInt(7) + 1];
+    }
+
+    @Override
+    public PieceGenerator split() {
+        return new UniformPieceGenerator(random.split());
+    }
+
+    @Override
+    public Kind getKind() {
+        return Kind.UNIFORM;
+    }
+}
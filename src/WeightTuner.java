@@ -0,0 +1,306 @@
+// File: src/WeightTuner.java
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Genetic algorithm for the BoardEvaluator weights. Each generation every weight set plays
+// the same seeded games through a TournamentRunner, so the games run in parallel on all
+// cores and the sets are compared on identical pieces. Fitness is the mean lines cleared
+// in games capped at a number of pieces, which rewards both surviving and clearing lines
+// with fewer pieces. The best sets are kept, the rest of the next generation is bred from
+// tournament-selected parents with uniform crossover and gaussian mutation.
+//
+// After every generation the population is checkpointed and the best weights so far are
+// written to the weight file the game and TetrisServer load at startup. Running again with
+// the same checkpoint file carries on from the last finished generation.
+//
+// Usage: java WeightTuner [--population=N] [--generations=N] [--games=N] [--max-pieces=N]
+//        [--threads=N] [--seed=N] [--depth=N] [--checkpoint=FILE] [--out=FILE]
+public class WeightTuner {
+    // state saved after every generation
+    private static final class Checkpoint {
+        private int generation;      // next generation to evaluate
+        private long seed;
+        private int[][] population;  // weight sets of that generation
+        private int[] bestWeights;
+        private double bestFitness = -1;
+        private double bestPiecesPerLine;
+    }
+
+    // the evaluator only compares scores, so scaling every weight by the same factor plays
+    // the same moves. Starting from the defaults times 10 gives mutations finer steps.
+    private static final int SCALE = 10;
+
+    private int populationSize = 16;
+    private int generations = 30;
+    private int eliteCount = 2;
+    private int games = 8;
+    private long maxPieces = 500;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 1;
+    private double mutationRate = 0.3;
+    private int depth = 1;
+    private String checkpointFile = "tuning_checkpoint.json";
+    private String outFile = BoardEvaluator.WEIGHTS_FILE;
+
+    // runs the remaining generations, returns the best weights found
+    public int[] run() throws IOException, InterruptedException {
+        Checkpoint checkpoint = loadCheckpoint();
+        if (checkpoint == null) {
+            checkpoint = firstGeneration();
+        } else {
+            System.out.println("Resuming from generation " + checkpoint.generation + " of " + checkpointFile);
+        }
+
+        while (checkpoint.generation < generations) {
+            int generation = checkpoint.generation;
+            int[][] population = checkpoint.population;
+            TournamentRunner.Summary[] summaries = evaluate(population, generation);
+
+            double[] fitness = new double[population.length];
+            int best = 0;
+            for (int i = 0; i < population.length; i++) {
+                fitness[i] = summaries[i].getMeanLines();
+                if (fitness[i] > fitness[best]) {
+                    best = i;
+                }
+            }
+            double piecesPerLine = summaries[best].getMeanLines() == 0 ? 0
+                    : summaries[best].getMeanPieces() / summaries[best].getMeanLines();
+            if (fitness[best] > checkpoint.bestFitness) {
+                checkpoint.bestFitness = fitness[best];
+                checkpoint.bestWeights = population[best].clone();
+                checkpoint.bestPiecesPerLine = piecesPerLine;
+                new BoardEvaluator(checkpoint.bestWeights).save(outFile);
+            }
+            System.out.printf("Generation %d: best %s lines %.1f pieces/line %.2f, overall best %s lines %.1f%n",
+                    generation, Arrays.toString(population[best]), fitness[best], piecesPerLine,
+                    Arrays.toString(checkpoint.bestWeights), checkpoint.bestFitness);
+
+            checkpoint.population = breed(population, fitness, random(generation));
+            checkpoint.generation = generation + 1;
+            saveCheckpoint(checkpoint);
+        }
+        System.out.println("Best weights " + Arrays.toString(checkpoint.bestWeights) + " written to " + outFile);
+        return checkpoint.bestWeights;
+    }
+
+    // starting population: the default weights and noisy copies of them
+    private Checkpoint firstGeneration() {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.seed = seed;
+        checkpoint.population = new int[populationSize][];
+        int[] defaults = BoardEvaluator.getDefaultWeights();
+        for (int i = 0; i < defaults.length; i++) {
+            defaults[i] *= SCALE;
+        }
+        SplittableRandom random = random(-1);
+        checkpoint.population[0] = defaults;
+        for (int i = 1; i < populationSize; i++) {
+            int[] weights = defaults.clone();
+            for (int f = 0; f < weights.length; f++) {
+                weights[f] += (int) Math.round(gaussian(random) * 15);
+            }
+            checkpoint.population[i] = weights;
+        }
+        return checkpoint;
+    }
+
+    // plays every weight set on this generation's seeds
+    private TournamentRunner.Summary[] evaluate(int[][] population, int generation) throws InterruptedException {
+        TournamentRunner runner = new TournamentRunner();
+        runner.setGames(games);
+        runner.setSeed(ZobristHash.mix(seed + generation)); // new seeds each generation so no set overfits them
+        runner.setMaxPieces(maxPieces);
+        runner.setThreads(threads);
+        runner.setPieces(PieceGenerator.Kind.BAG);
+        SearchConfig config = depth == 1 ? SearchConfig.greedy() : new SearchConfig(depth, 8, 0, false);
+        for (int i = 0; i < population.length; i++) {
+            runner.addContestant(new TournamentRunner.Contestant("g" + generation + "-" + i, config, population[i]));
+        }
+        List<TournamentRunner.Summary> summaries = runner.run().getSummaries();
+        return summaries.toArray(new TournamentRunner.Summary[0]);
+    }
+
+    // next generation: the elite unchanged, then children of tournament-selected parents
+    private int[][] breed(int[][] population, double[] fitness, SplittableRandom random) {
+        Integer[] order = new Integer[population.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(fitness[b], fitness[a]));
+
+        int[][] next = new int[population.length][];
+        int elite = Math.min(eliteCount, population.length);
+        for (int i = 0; i < elite; i++) {
+            next[i] = population[order[i]].clone();
+        }
+        for (int i = elite; i < next.length; i++) {
+            int[] mother = population[select(fitness, random)];
+            int[] father = population[select(fitness, random)];
+            int[] child = new int[mother.length];
+            for (int f = 0; f < child.length; f++) {
+                child[f] = random.nextBoolean() ? mother[f] : father[f];
+                if (random.nextDouble() < mutationRate) {
+                    double step = Math.max(2, Math.abs(child[f]) * 0.3);
+                    child[f] += (int) Math.round(gaussian(random) * step);
+                }
+            }
+            next[i] = child;
+        }
+        return next;
+    }
+
+    // index of the fittest of three random members
+    private static int select(double[] fitness, SplittableRandom random) {
+        int best = random.nextInt(fitness.length);
+        for (int i = 0; i < 2; i++) {
+            int other = random.nextInt(fitness.length);
+            if (fitness[other] > fitness[best]) {
+                best = other;
+            }
+        }
+        return best;
+    }
+
+    // random numbers for a generation, the same on a resumed run
+    private SplittableRandom random(int generation) {
+        return new SplittableRandom(ZobristHash.mix(seed * 31 + generation));
+    }
+
+    // standard normal sample (Box-Muller)
+    private static double gaussian(SplittableRandom random) {
+        double u = 1 - random.nextDouble(); // (0, 1], keeps log away from 0
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    // the saved checkpoint, or null to start from scratch
+    private Checkpoint loadCheckpoint() throws IOException {
+        File file = new File(checkpointFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileReader reader = new FileReader(file)) {
+            Checkpoint checkpoint = new Gson().fromJson(reader, Checkpoint.class);
+            if (checkpoint == null || checkpoint.population == null || checkpoint.population.length == 0) {
+                throw new IOException("Empty checkpoint " + checkpointFile);
+            }
+            seed = checkpoint.seed; // seeds must match the run being resumed
+            return checkpoint;
+        } catch (JsonParseException e) {
+            throw new IOException("Bad checkpoint " + checkpointFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    // writes the checkpoint to a temporary file first so a crash never leaves half a checkpoint
+    private void saveCheckpoint(Checkpoint checkpoint) throws IOException {
+        File file = new File(checkpointFile);
+        File temp = new File(checkpointFile + ".tmp");
+        try (FileWriter writer = new FileWriter(temp)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(checkpoint, writer);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void setPopulationSize(int populationSize) {
+        if (populationSize < 2) {
+            throw new IllegalArgumentException("Population must be at least 2: " + populationSize);
+        }
+        this.populationSize = populationSize;
+    }
+
+    public void setGenerations(int generations) {
+        this.generations = Math.max(0, generations);
+    }
+
+    public void setGames(int games) {
+        if (games < 1) {
+            throw new IllegalArgumentException("Each weight set needs at least one game: " + games);
+        }
+        this.games = games;
+    }
+
+    // games stop after this many pieces, 0 for no limit
+    public void setMaxPieces(long maxPieces) {
+        this.maxPieces = Math.max(0, maxPieces);
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Tuning needs at least one thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    // search depth the weight sets are played with, 1 for the fast one-piece search
+    public void setDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Search depth must be at least 1: " + depth);
+        }
+        this.depth = depth;
+    }
+
+    public void setCheckpointFile(String checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public void setOutFile(String outFile) {
+        this.outFile = outFile;
+    }
+
+    public static void main(String[] args) {
+        WeightTuner tuner = new WeightTuner();
+        try {
+            for (String arg : args) {
+                if (arg.startsWith("--population=")) {
+                    tuner.setPopulationSize(Integer.parseInt(arg.substring("--population=".length())));
+                } else if (arg.startsWith("--generations=")) {
+                    tuner.setGenerations(Integer.parseInt(arg.substring("--generations=".length())));
+                } else if (arg.startsWith("--games=")) {
+                    tuner.setGames(Integer.parseInt(arg.substring("--games=".length())));
+                } else if (arg.startsWith("--max-pieces=")) {
+                    tuner.setMaxPieces(Long.parseLong(arg.substring("--max-pieces=".length())));
+                } else if (arg.startsWith("--threads=")) {
+                    tuner.setThreads(Integer.parseInt(arg.substring("--threads=".length())));
+                } else if (arg.startsWith("--seed=")) {
+                    tuner.setSeed(Long.parseLong(arg.substring("--seed=".length())));
+                } else if (arg.startsWith("--depth=")) {
+                    tuner.setDepth(Integer.parseInt(arg.substring("--depth=".length())));
+                } else if (arg.startsWith("--checkpoint=")) {
+                    tuner.setCheckpointFile(arg.substring("--checkpoint=".length()));
+                } else if (arg.startsWith("--out=")) {
+                    tuner.setOutFile(arg.substring("--out=".length()));
+                } else {
+                    System.out.println("Ignoring unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Bad option: " + e.getMessage());
+            return;
+        }
+
+        try {
+            tuner.run();
+        } catch (IOException e) {
+            System.out.println("Tuning stopped. " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
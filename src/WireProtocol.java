@@ -0,0 +1,304 @@
+// File: src/WireProtocol.java
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Binary protocol between TetrisClient and TetrisServer. A connection whose first byte is
+// MAGIC speaks this protocol for its whole life, anything else is the newline-delimited
+// JSON protocol, so old clients keep working. A client opens every binary connection with
+// a HELLO frame, and falls back to JSON only if the server answers it with a JSON line or
+// an error instead of echoing it.
+//
+// Every frame, big endian:
+//   byte   MAGIC
+//   short  payload length (unsigned)
+//   byte   version (1)
+//   byte   type
+//   int    request id, copied into the reply
+//   ...    the rest of the payload, by type
+//
+// MOVE_REQUEST: byte width, byte height, byte current piece, byte rotation, byte next
+//   piece (shape ordinals), then one row mask per board row from the bottom up, bit x set
+//   for a filled column x. Rows are shorts for boards up to 16 wide and ints above that,
+//   so a 10 x 20 request is 54 bytes.
+// PLACE_REQUEST: byte placed piece, byte placed rotation, byte placed column, byte current
+//   piece, byte rotation, byte next piece, int checksum. Sent instead of a move request
+//   when the server already has the board: the last piece the server was asked about has
+//   been dropped with the given rotation and column, rows it filled cleared, and the game
+//   has moved on to the new pieces. The checksum is of the board after the drop.
+// MOVE_REPLY: byte column, byte rotation.
+// ERROR_REPLY: short length, UTF-8 message.
+// RESYNC_REPLY: no body, the server could not apply a placement (its board is missing or
+//   the checksum differs) and wants the whole board in a move request.
+// HELLO: byte '\n'. Sent first on a binary connection and echoed back unchanged by a
+//   server that speaks this version. The newline ends the frame as a line for a server
+//   that only knows JSON, so it answers at once with a JSON error line.
+final class WireProtocol {
+    static final byte MAGIC = (byte) 0xB7;
+    static final int VERSION = 1;
+
+    static final int MOVE_REQUEST = 1;
+    static final int MOVE_REPLY = 2;
+    static final int ERROR_REPLY = 3;
+    static final int PLACE_REQUEST = 4;
+    static final int RESYNC_REPLY = 5;
+    static final int HELLO = 6;
+
+    // magic and length before the payload
+    static final int FRAME_HEADER_BYTES = 3;
+    // version, type and id at the start of every payload
+    static final int PAYLOAD_HEADER_BYTES = 6;
+    static final int MAX_PAYLOAD = 0xFFFF;
+
+    private static final Shape.Tetrominoes[] SHAPES = Shape.Tetrominoes.values();
+
+    private WireProtocol() {
+    }
+
+    // a decoded reply, move is null when the server sent an error, asked for a resync or
+    // echoed a hello
+    static final class Reply {
+        final int id;
+        final OpMove move;
+        final String error;
+        final boolean resync;
+        final boolean hello;
+
+        Reply(int id, OpMove move, String error, boolean resync, boolean hello) {
+            this.id = id;
+            this.move = move;
+            this.error = error;
+            this.resync = resync;
+            this.hello = hello;
+        }
+    }
+
+    // a decoded placement request
+    static final class Placement {
+        final Shape.Tetrominoes piece;
+        final int rotation;
+        final int column;
+        final Shape.Tetrominoes currentPiece;
+        final int currentRotation;
+        final Shape.Tetrominoes nextPiece;
+        final int checksum;
+
+        Placement(Shape.Tetrominoes piece, int rotation, int column, Shape.Tetrominoes currentPiece,
+                int currentRotation, Shape.Tetrominoes nextPiece, int checksum) {
+            this.piece = piece;
+            this.rotation = rotation;
+            this.column = column;
+            this.currentPiece = currentPiece;
+            this.currentRotation = currentRotation;
+            this.nextPiece = nextPiece;
+            this.checksum = checksum;
+        }
+    }
+
+    // FNV-1a hash of the size and filled cells of a board, the same on both ends whatever
+    // shapes the cells hold
+    static int checksum(GameState state) {
+        int hash = 0x811C9DC5;
+        hash = (hash ^ state.getWidth()) * 0x01000193;
+        hash = (hash ^ state.getHeight()) * 0x01000193;
+        for (int row = 0; row < state.getHeight(); row++) {
+            hash = (hash ^ state.occupancy(row)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    // bytes in a row mask on the wire
+    private static int rowBytes(int width) {
+        return width <= 16 ? Short.BYTES : Integer.BYTES;
+    }
+
+    // whole frame size of a move request
+    static int requestFrameSize(GameState state) {
+        return FRAME_HEADER_BYTES + PAYLOAD_HEADER_BYTES + 5 + state.getHeight() * rowBytes(state.getWidth());
+    }
+
+    // writes a move request frame for a snapshot
+    static void writeRequest(ByteBuffer out, int id, GameState state) {
+        int width = state.getWidth();
+        int height = state.getHeight();
+        beginFrame(out, MOVE_REQUEST, id, 5 + height * rowBytes(width));
+        out.put((byte) width);
+        out.put((byte) height);
+        out.put((byte) state.getCurrentPiece().ordinal());
+        out.put((byte) state.getRotation());
+        out.put((byte) state.getNextPiece().ordinal());
+        for (int row = 0; row < height; row++) {
+            if (width <= 16) {
+                out.putShort((short) state.occupancy(row));
+            } else {
+                out.putInt(state.occupancy(row));
+            }
+        }
+    }
+
+    // size of a placement request frame
+    static final int PLACE_FRAME_SIZE = FRAME_HEADER_BYTES + PAYLOAD_HEADER_BYTES + 6 + Integer.BYTES;
+
+    // writes a placement request frame: piece was dropped with rotation turns at column, and
+    // state is the game after it
+    static void writePlacement(ByteBuffer out, int id, Shape.Tetrominoes piece, int rotation, int column,
+            GameState state) {
+        beginFrame(out, PLACE_REQUEST, id, 6 + Integer.BYTES);
+        out.put((byte) piece.ordinal());
+        out.put((byte) rotation);
+        out.put((byte) column);
+        out.put((byte) state.getCurrentPiece().ordinal());
+        out.put((byte) state.getRotation());
+        out.put((byte) state.getNextPiece().ordinal());
+        out.putInt(checksum(state));
+    }
+
+    // size of a hello frame
+    static final int HELLO_FRAME_SIZE = FRAME_HEADER_BYTES + PAYLOAD_HEADER_BYTES + 1;
+
+    // writes a hello frame, the client's first frame and the server's echo of it
+    static void writeHello(ByteBuffer out, int id) {
+        beginFrame(out, HELLO, id, 1);
+        out.put((byte) '\n');
+    }
+
+    // writes a resync reply frame
+    static void writeResync(ByteBuffer out, int id) {
+        beginFrame(out, RESYNC_REPLY, id, 0);
+    }
+
+    // writes a move reply frame
+    static void writeReply(ByteBuffer out, int id, int column, int rotation) {
+        beginFrame(out, MOVE_REPLY, id, 2);
+        out.put((byte) column);
+        out.put((byte) rotation);
+    }
+
+    // writes an error reply frame
+    static void writeError(ByteBuffer out, int id, String message) {
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(text.length, 1024);
+        beginFrame(out, ERROR_REPLY, id, Short.BYTES + length);
+        out.putShort((short) length);
+        out.put(text, 0, length);
+    }
+
+    // largest reply frame, for sizing reply buffers
+    static int maxReplyFrameSize() {
+        return FRAME_HEADER_BYTES + PAYLOAD_HEADER_BYTES + Short.BYTES + 1024;
+    }
+
+    private static void beginFrame(ByteBuffer out, int type, int id, int bodyBytes) {
+        out.put(MAGIC);
+        out.putShort((short) (PAYLOAD_HEADER_BYTES + bodyBytes));
+        out.put((byte) VERSION);
+        out.put((byte) type);
+        out.putInt(id);
+    }
+
+    // payload length of the frame at the buffer's position, -1 if the header has not all
+    // arrived yet. The position does not move.
+    static int payloadLength(ByteBuffer in) throws IOException {
+        if (in.remaining() < FRAME_HEADER_BYTES) {
+            return -1;
+        }
+        if (in.get(in.position()) != MAGIC) {
+            throw new IOException("Bad frame start " + (in.get(in.position()) & 0xFF));
+        }
+        return in.getShort(in.position() + 1) & 0xFFFF;
+    }
+
+    // id of a payload, for error replies to requests that cannot be decoded
+    static int id(ByteBuffer payload) {
+        return payload.remaining() >= PAYLOAD_HEADER_BYTES ? payload.getInt(payload.position() + 2) : 0;
+    }
+
+    // type of a payload, checking its version
+    static int type(ByteBuffer payload) throws IOException {
+        if (payload.remaining() < PAYLOAD_HEADER_BYTES) {
+            throw new IOException("Frame too short");
+        }
+        int version = payload.get(payload.position()) & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+        return payload.get(payload.position() + 1) & 0xFF;
+    }
+
+    // decodes a move request payload into a snapshot, filled cells read back as filler since
+    // the wire only carries occupancy
+    static GameState readRequest(ByteBuffer payload, Shape.Tetrominoes filler) throws IOException {
+        if (type(payload) != MOVE_REQUEST) {
+            throw new IOException("Expected a move request");
+        }
+        ByteBuffer in = payload.duplicate();
+        in.position(in.position() + PAYLOAD_HEADER_BYTES);
+        try {
+            int width = in.get() & 0xFF;
+            int height = in.get() & 0xFF;
+            Shape.Tetrominoes current = shape(in.get() & 0xFF);
+            int rotation = in.get() & 0xFF;
+            Shape.Tetrominoes next = shape(in.get() & 0xFF);
+            GameState.Builder state = new GameState.Builder(width, height);
+            state.currentPiece(current, rotation);
+            state.nextPiece(next);
+            for (int row = 0; row < height; row++) {
+                int mask = width <= 16 ? in.getShort() & 0xFFFF : in.getInt();
+                state.occupancy(row, mask, filler);
+            }
+            return state.build();
+        } catch (RuntimeException e) {
+            throw new IOException("Bad move request: " + e.getMessage(), e);
+        }
+    }
+
+    // decodes a placement request payload
+    static Placement readPlacement(ByteBuffer payload) throws IOException {
+        if (type(payload) != PLACE_REQUEST) {
+            throw new IOException("Expected a placement request");
+        }
+        ByteBuffer in = payload.duplicate();
+        in.position(in.position() + PAYLOAD_HEADER_BYTES);
+        try {
+            return new Placement(shape(in.get() & 0xFF), in.get() & 0xFF, in.get(), shape(in.get() & 0xFF),
+                    in.get() & 0xFF, shape(in.get() & 0xFF), in.getInt());
+        } catch (RuntimeException e) {
+            throw new IOException("Bad placement request: " + e.getMessage(), e);
+        }
+    }
+
+    // decodes a reply payload
+    static Reply readReply(ByteBuffer payload) throws IOException {
+        int type = type(payload);
+        int id = id(payload);
+        ByteBuffer in = payload.duplicate();
+        in.position(in.position() + PAYLOAD_HEADER_BYTES);
+        try {
+            if (type == MOVE_REPLY) {
+                return new Reply(id, new OpMove(in.get(), in.get()), null, false, false);
+            }
+            if (type == ERROR_REPLY) {
+                byte[] text = new byte[in.getShort() & 0xFFFF];
+                in.get(text);
+                return new Reply(id, null, new String(text, StandardCharsets.UTF_8), false, false);
+            }
+            if (type == RESYNC_REPLY) {
+                return new Reply(id, null, null, true, false);
+            }
+            if (type == HELLO) {
+                return new Reply(id, null, null, false, true);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Bad reply: " + e.getMessage(), e);
+        }
+        throw new IOException("Unexpected frame type " + type);
+    }
+
+    private static Shape.Tetrominoes shape(int ordinal) throws IOException {
+        if (ordinal >= SHAPES.length) {
+            throw new IOException("Bad shape id " + ordinal);
+        }
+        return SHAPES[ordinal];
+    }
+}
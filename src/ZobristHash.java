@@ -0,0 +1,51 @@
+// File: src/ZobristHash.java
+
+// Zobrist keys for board cells and pieces. A board's hash is the XOR of the keys of its
+// filled cells, so placing or removing a piece only XORs in its 4 cell keys.
+public final class ZobristHash {
+    // rows with a precomputed key table, taller boards derive the rest on demand
+    private static final int TABLE_ROWS = 64;
+    private static final long[] CELL_KEYS = new long[TABLE_ROWS * BitBoard.MAX_WIDTH];
+    private static final long[] PIECE_KEYS = new long[2 * 8 * 4]; // slot x shape x rotation
+
+    static {
+        for (int i = 0; i < CELL_KEYS.length; i++) {
+            CELL_KEYS[i] = mix(0x5EEDL + i);
+        }
+        for (int i = 0; i < PIECE_KEYS.length; i++) {
+            PIECE_KEYS[i] = mix(0xB10CL * 31 + i);
+        }
+    }
+
+    private ZobristHash() {
+    }
+
+    // key of a single filled cell
+    public static long cellKey(int x, int y) {
+        int index = y * BitBoard.MAX_WIDTH + x;
+        return y < TABLE_ROWS ? CELL_KEYS[index] : mix(0x5EEDL + index);
+    }
+
+    // XOR of the keys of every cell set in a row mask
+    public static long rowKey(int y, int mask) {
+        long key = 0;
+        while (mask != 0) {
+            key ^= cellKey(Integer.numberOfTrailingZeros(mask), y);
+            mask &= mask - 1;
+        }
+        return key;
+    }
+
+    // key of a piece orientation, slot 0 for the current piece and 1 for the next piece
+    public static long pieceKey(Shape.Orientation orientation, int slot) {
+        return PIECE_KEYS[(slot * 8 + orientation.getShape().ordinal()) * 4 + orientation.getRotation()];
+    }
+
+    // SplitMix64 finaliser, spreads any input over all 64 bits
+    public static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}